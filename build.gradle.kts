@@ -12,6 +12,7 @@ plugins {
     id("nebula.kotlin") version "1.3.21"
     id("io.spring.release") version "0.20.1"
     kotlin("jvm") version "1.3.30"
+    kotlin("kapt") version "1.3.30"
 }
 
 apply(plugin = "io.spring.license")
@@ -41,11 +42,18 @@ repositories {
     jcenter()
 }
 
+// the generated adapters have to come from the same Moshi release as the runtime, and one built for Kotlin 1.3.30
+val moshiVersion = "1.8.0"
+// Moshi 1.8 only brings in Okio 1, and the streaming readers and writers use the Okio 2 extension functions
+val okioVersion = "2.2.2"
+
 dependencies {
     implementation("org.jetbrains.kotlin:kotlin-reflect")
-    implementation("com.squareup.moshi:moshi:latest.release")
-    implementation("com.squareup.moshi:moshi-kotlin:latest.release")
-    implementation("com.squareup.moshi:moshi-adapters:latest.release")
+    implementation("com.squareup.moshi:moshi:$moshiVersion")
+    implementation("com.squareup.moshi:moshi-kotlin:$moshiVersion")
+    implementation("com.squareup.moshi:moshi-adapters:$moshiVersion")
+    kapt("com.squareup.moshi:moshi-kotlin-codegen:$moshiVersion")
+    implementation("com.squareup.okio:okio:$okioVersion")
     implementation("net.javacrumbs.json-unit:json-unit-assertj:latest.release")
     implementation("com.netflix.spinnaker.orca:orca-core:latest.release")
 
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+import java.time.Duration
+import java.time.format.DateTimeParseException
+
+interface StageDurationEstimator {
+    fun estimate(stage: PipelineStage): Duration
+}
+
+/**
+ * Takes literal [Wait] times and [Canary] lifetimes from the stage itself, then falls back to the duration configured
+ * for the stage's type, then to [defaultDuration].
+ */
+class StageDurations @JvmOverloads constructor(
+        val defaultDuration: Duration = Duration.ZERO,
+        val durationsByType: Map<Class<out SpecificStageConfig>, Duration> = emptyMap()
+) : StageDurationEstimator {
+
+    fun withDuration(type: Class<out SpecificStageConfig>, duration: Duration): StageDurations {
+        return StageDurations(defaultDuration, durationsByType + (type to duration))
+    }
+
+    override fun estimate(stage: PipelineStage): Duration {
+        val stageConfig = stage.stageConfig
+        val literalDuration = when (stageConfig) {
+            is Wait -> stageConfig.waitTime.trim().toLongOrNull()?.let { Duration.ofSeconds(it) }
+            is Canary -> parseDuration(stageConfig.canaryConfig.lifetimeDuration)
+            else -> null
+        }
+        return literalDuration ?: durationsByType[stageConfig.javaClass] ?: defaultDuration
+    }
+
+    private fun parseDuration(duration: String): Duration? {
+        return try {
+            Duration.parse(duration)
+        } catch (e: DateTimeParseException) {
+            null
+        }
+    }
+}
+
+data class StageTiming(
+        val stage: PipelineStage,
+        val duration: Duration,
+        val earliestStart: Duration,
+        val latestStart: Duration
+) {
+    val earliestFinish: Duration get() = earliestStart + duration
+    val slack: Duration get() = latestStart - earliestStart
+    val isCritical: Boolean get() = slack.isZero
+}
+
+data class CriticalPathAnalysis(
+        val duration: Duration,
+        val timings: List<StageTiming>,
+        val criticalPath: List<PipelineStage>
+) {
+    val criticalStages: List<PipelineStage> get() = timings.filter { it.isCritical }.map { it.stage }
+
+    fun timing(refId: String): StageTiming? = timings.find { it.stage.refId == refId }
+}
+
+/**
+ * Best-case wall-clock time of the stages, assuming every stage starts as soon as its requisite stages finish.
+ * Computes the earliest and latest start of each stage, and so its slack, in O(stages + requirements). [timings]
+ * are in stage order; [CriticalPathAnalysis.criticalPath] is one longest chain, first stage first.
+ */
+@JvmOverloads
+fun Stages.criticalPath(estimator: StageDurationEstimator = StageDurations()): CriticalPathAnalysis {
+    val graph = this.graph
+    val order = topologicalOrder().map { graph.indexOf(it.refId) }
+    val n = graph.size
+    val durations = LongArray(n) { estimator.estimate(graph[it]).toMillis() }
+
+    val earliestStart = LongArray(n)
+    val criticalPredecessor = IntArray(n) { -1 }
+    var total = 0L
+    var lastCriticalStage = -1
+    order.forEach { i ->
+        graph.predecessors[i].forEach { p ->
+            val finish = earliestStart[p] + durations[p]
+            if (finish > earliestStart[i] || criticalPredecessor[i] < 0) {
+                earliestStart[i] = maxOf(earliestStart[i], finish)
+                criticalPredecessor[i] = p
+            }
+        }
+        val finish = earliestStart[i] + durations[i]
+        if (finish > total || lastCriticalStage < 0) {
+            total = maxOf(total, finish)
+            lastCriticalStage = i
+        }
+    }
+
+    val latestStart = LongArray(n)
+    order.asReversed().forEach { i ->
+        var latestFinish = total
+        graph.successors[i].forEach { latestFinish = minOf(latestFinish, latestStart[it]) }
+        latestStart[i] = latestFinish - durations[i]
+    }
+
+    val criticalPath = ArrayList<PipelineStage>()
+    var i = lastCriticalStage
+    while (i >= 0) {
+        criticalPath += graph[i]
+        i = criticalPredecessor[i]
+    }
+
+    return CriticalPathAnalysis(
+            Duration.ofMillis(total),
+            (0 until n).map {
+                StageTiming(
+                        graph[it],
+                        Duration.ofMillis(durations[it]),
+                        Duration.ofMillis(earliestStart[it]),
+                        Duration.ofMillis(latestStart[it])
+                )
+            },
+            criticalPath.asReversed()
+    )
+}
+
+@JvmOverloads
+fun PipelineModel.criticalPath(estimator: StageDurationEstimator = StageDurations()): CriticalPathAnalysis {
+    return stages.criticalPath(estimator)
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+import java.util.ArrayDeque
+
+/**
+ * Dominator tree of a stage graph. In a tree of [dominators], a stage dominates another if every path from the start
+ * of the pipeline to the other stage goes through it, so the other stage cannot run unless it succeeds. In a tree of
+ * [postDominators], a stage post-dominates another if every path from the other stage to the end of the pipeline goes
+ * through it.
+ */
+class DominatorTree internal constructor(
+        private val graph: StageGraphIndex,
+        private val immediateDominators: IntArray
+) {
+    private val root = graph.size
+
+    private val preOrder = IntArray(graph.size + 1)
+
+    private val postOrder = IntArray(graph.size + 1)
+
+    private val subtreeSizes = IntArray(graph.size + 1) { 1 }
+
+    init {
+        val children = Array(graph.size + 1) { ArrayList<Int>() }
+        (0 until graph.size).forEach { children[immediateDominators[it]].add(it) }
+        var pre = 0
+        var post = 0
+        val path = ArrayDeque<Pair<Int, Iterator<Int>>>()
+        preOrder[root] = pre++
+        path.push(root to children[root].iterator())
+        while (path.isNotEmpty()) {
+            val (node, remaining) = path.peek()
+            if (remaining.hasNext()) {
+                val child = remaining.next()
+                preOrder[child] = pre++
+                path.push(child to children[child].iterator())
+            } else {
+                postOrder[node] = post++
+                path.pop()
+                if (node != root) {
+                    subtreeSizes[immediateDominators[node]] += subtreeSizes[node]
+                }
+            }
+        }
+    }
+
+    /** The closest stage dominating [refId], or null if no single stage does. */
+    fun immediateDominator(refId: String): PipelineStage? {
+        val i = graph.indexOf(refId)
+        return if (i < 0 || immediateDominators[i] == root) null else graph[immediateDominators[i]]
+    }
+
+    /** Whether [refId] dominates the different stage [otherRefId]. */
+    fun dominates(refId: String, otherRefId: String): Boolean {
+        val i = graph.indexOf(refId)
+        val j = graph.indexOf(otherRefId)
+        return i >= 0 && j >= 0 && i != j && dominates(i, j)
+    }
+
+    /** Stages that [refId] dominates, in stage order. */
+    fun dominated(refId: String): List<PipelineStage> {
+        val i = graph.indexOf(refId)
+        return if (i < 0) emptyList() else (0 until graph.size).filter { it != i && dominates(i, it) }.map { graph[it] }
+    }
+
+    /** Number of stages that [refId] dominates. */
+    fun dominatedCount(refId: String): Int {
+        val i = graph.indexOf(refId)
+        return if (i < 0) 0 else subtreeSizes[i] - 1
+    }
+
+    private fun dominates(i: Int, j: Int): Boolean = preOrder[i] <= preOrder[j] && postOrder[j] <= postOrder[i]
+}
+
+/**
+ * @throws io.pivotal.canal.model.extensions.InvalidStageGraphException if the stages do not form a valid DAG
+ */
+fun Stages.dominators(): DominatorTree {
+    topologicalOrder()
+    return DominatorTree(graph, immediateDominators(graph.size, graph.predecessors, graph.successors))
+}
+
+/**
+ * @throws io.pivotal.canal.model.extensions.InvalidStageGraphException if the stages do not form a valid DAG
+ */
+fun Stages.postDominators(): DominatorTree {
+    topologicalOrder()
+    return DominatorTree(graph, immediateDominators(graph.size, graph.successors, graph.predecessors))
+}
+
+/**
+ * Lengauer-Tarjan with path compression, in O(edges log stages). Node [n] is a virtual root that leads to every node
+ * without [predecessors]. Returns the immediate dominator of each node, [n] for nodes only the root dominates.
+ */
+private fun immediateDominators(n: Int, predecessors: Array<IntArray>, successors: Array<IntArray>): IntArray {
+    val root = n
+    val rootPredecessors = intArrayOf(root)
+    fun predecessorsOf(v: Int): IntArray =
+            if (v == root) IntArray(0) else predecessors[v].let { if (it.isEmpty()) rootPredecessors else it }
+    fun successorsOf(v: Int): IntArray =
+            if (v == root) (0 until n).filter { predecessors[it].isEmpty() }.toIntArray() else successors[v]
+
+    val number = IntArray(n + 1) { -1 }
+    val vertex = IntArray(n + 1)
+    val parent = IntArray(n + 1) { -1 }
+    var count = 0
+    val stack = ArrayDeque<Int>()
+    stack.push(root)
+    while (stack.isNotEmpty()) {
+        val v = stack.pop()
+        if (number[v] >= 0) {
+            continue
+        }
+        number[v] = count
+        vertex[count++] = v
+        successorsOf(v).reversed().forEach {
+            if (number[it] < 0) {
+                parent[it] = v
+                stack.push(it)
+            }
+        }
+    }
+
+    val semi = IntArray(n + 1) { number[it] }
+    val label = IntArray(n + 1) { it }
+    val ancestor = IntArray(n + 1) { -1 }
+    val idom = IntArray(n + 1) { -1 }
+    val bucket = Array(n + 1) { ArrayList<Int>() }
+
+    fun eval(v: Int): Int {
+        if (ancestor[v] < 0) {
+            return v
+        }
+        val path = ArrayDeque<Int>()
+        var x = v
+        while (ancestor[ancestor[x]] >= 0) {
+            path.push(x)
+            x = ancestor[x]
+        }
+        while (path.isNotEmpty()) {
+            val y = path.pop()
+            val a = ancestor[y]
+            if (semi[label[a]] < semi[label[y]]) {
+                label[y] = label[a]
+            }
+            ancestor[y] = ancestor[a]
+        }
+        return label[v]
+    }
+
+    for (i in count - 1 downTo 1) {
+        val w = vertex[i]
+        predecessorsOf(w).forEach { v ->
+            if (number[v] >= 0) {
+                val u = eval(v)
+                if (semi[u] < semi[w]) {
+                    semi[w] = semi[u]
+                }
+            }
+        }
+        bucket[vertex[semi[w]]].add(w)
+        ancestor[w] = parent[w]
+        bucket[parent[w]].forEach { v ->
+            val u = eval(v)
+            idom[v] = if (semi[u] < semi[v]) u else parent[w]
+        }
+        bucket[parent[w]].clear()
+    }
+    for (i in 1 until count) {
+        val w = vertex[i]
+        if (idom[w] != vertex[semi[w]]) {
+            idom[w] = idom[idom[w]]
+        }
+    }
+    return idom.copyOf(n)
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+
+data class ConcurrencyViolation(
+        val level: Int,
+        val credentials: String,
+        val stages: List<PipelineStage>
+)
+
+/**
+ * Stages grouped by level, the length of the longest chain of requisite stages before them. All stages of a level can
+ * run at the same time once the levels before it are done.
+ */
+data class LevelSchedule(
+        val levels: List<List<PipelineStage>>
+) {
+    private val levelByRefId: Map<String, Int> by lazy {
+        val levelsByRefId = HashMap<String, Int>()
+        levels.forEachIndexed { level, stages -> stages.forEach { levelsByRefId.putIfAbsent(it.refId, level) } }
+        levelsByRefId
+    }
+
+    /** Number of stages in each level. */
+    val widths: List<Int> get() = levels.map { it.size }
+
+    val maxWidth: Int get() = widths.max() ?: 0
+
+    /** Level of the stage [refId], or -1 if there is no such stage. */
+    fun level(refId: String): Int = levelByRefId[refId] ?: -1
+
+    /**
+     * Levels with more than [maxConcurrent] [CloudSpecific] stages using the same [CloudProvider.credentials], one
+     * violation per level and credentials.
+     */
+    fun cloudConcurrencyViolations(maxConcurrent: Int): List<ConcurrencyViolation> {
+        return levels.withIndex().flatMap { (level, stages) ->
+            stages.filter { it.stageConfig is CloudSpecific }
+                    .groupBy { (it.stageConfig as CloudSpecific).provider.credentials }
+                    .filter { it.value.size > maxConcurrent }
+                    .map { ConcurrencyViolation(level, it.key, it.value) }
+        }
+    }
+}
+
+fun Stages.levelSchedule(): LevelSchedule {
+    val graph = this.graph
+    val levelOf = IntArray(graph.size)
+    val levels = ArrayList<MutableList<PipelineStage>>()
+    topologicalOrder().forEach { stage ->
+        val i = graph.indexOf(stage.refId)
+        val level = graph.predecessors[i].map { levelOf[it] + 1 }.max() ?: 0
+        levelOf[i] = level
+        if (level == levels.size) {
+            levels += ArrayList<PipelineStage>()
+        }
+        levels[level].add(stage)
+    }
+    return LevelSchedule(levels)
+}
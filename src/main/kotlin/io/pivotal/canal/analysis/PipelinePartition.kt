@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.json.JsonAdapterFactory
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+
+data class PipelineLimits @JvmOverloads constructor(
+        val maxStages: Int = Int.MAX_VALUE,
+        val maxBytes: Long = Long.MAX_VALUE
+) {
+    init {
+        require(maxStages > 0) { "maxStages must be positive, but was $maxStages" }
+        require(maxBytes > 0) { "maxBytes must be positive, but was $maxBytes" }
+    }
+}
+
+data class PipelinePartition(
+        val parent: PipelineModel,
+        val children: List<PipelineModel> = emptyList()
+) {
+    val isSplit: Boolean get() = children.isNotEmpty()
+}
+
+/**
+ * Splits the stages of a pipeline over [limits] into child pipelines, each within [limits], that the parent pipeline
+ * runs through [RunPipeline] stages. The children take consecutive runs of the stages in topological order, and each
+ * child runs after the children holding stages its stages require, so every stage still runs after the stages it
+ * requires while children that do not depend on each other run in parallel. Each cut falls where the fewest
+ * requirements cross it, among the cuts in the last half of the stages that fit.
+ *
+ * Byte sizes are those of the pipeline JSON, and a child's stages are kept within what its name, parameters and
+ * settings leave of [PipelineLimits.maxBytes]. Children keep the refIds, parameters and settings of the pipeline, but
+ * not its triggers or notifications, so a run is only started and reported once, by the parent; the parent passes its
+ * parameters on to them. [childPipelineId] gives the pipeline each [RunPipeline] stage runs, and defaults to the
+ * child's name for callers that resolve ids when saving.
+ *
+ * @throws IllegalArgumentException if a single stage does not fit in a child, or the stages running the children do
+ * not fit in the parent
+ */
+@JvmOverloads
+fun PipelineModel.partition(
+        application: String,
+        limits: PipelineLimits,
+        childPipelineId: (PipelineModel) -> String = { it.name }
+): PipelinePartition {
+    val graph = stages.graph
+    val order = stages.topologicalOrder()
+    val n = order.size
+    if (n <= limits.maxStages && pipelineBytes(this) <= limits.maxBytes) {
+        return PipelinePartition(this)
+    }
+    val bytes = order.map { stageBytes(it) }
+
+    fun part(i: Int, stages: Stages) = copy(
+            name = "$name - part ${i + 1}",
+            triggers = emptyList(),
+            notifications = emptyList(),
+            stages = stages
+    )
+    // no child is numbered higher than n, and each stage's own brackets make up for the commas between stages
+    val stageBudget = limits.maxBytes - pipelineBytes(part(n - 1, Stages()))
+
+    val position = IntArray(n)
+    order.forEachIndexed { p, stage -> position[graph.indexOf(stage.refId)] = p }
+    val crossingRequirements = IntArray(n + 2)
+    (0 until n).forEach { i ->
+        graph.predecessors[i].forEach {
+            crossingRequirements[position[it] + 1]++
+            crossingRequirements[position[i] + 1]--
+        }
+    }
+    (1..n).forEach { crossingRequirements[it] += crossingRequirements[it - 1] }
+
+    val segments = ArrayList<List<PipelineStage>>()
+    var start = 0
+    while (start < n) {
+        var end = start
+        var size = 0L
+        while (end < n && end - start < limits.maxStages && size + bytes[end] <= stageBudget) {
+            size += bytes[end++]
+        }
+        require(end > start) {
+            "Stage '${order[start].refId}' alone is over the $stageBudget of ${limits.maxBytes} bytes a child leaves for stages"
+        }
+        val cut = if (end == n) n else ((start + end + 1) / 2..end)
+                .minWith(compareBy<Int>({ crossingRequirements[it] }, { -it }))!!
+        segments += order.subList(start, cut).sortedBy { graph.indexOf(it.refId) }
+        start = cut
+    }
+
+    val pipelineParameters = parameters.map { it.name to "\${ parameters['${it.name}'] }" }.toMap()
+    val children = segments.mapIndexed { i, segment ->
+        val refIds = segment.map { it.refId }.toSet()
+        val stageRequirements = LinkedHashMap<String, List<String>>()
+        segment.forEach { stage ->
+            val requisiteStageRefIds = stages.stageRequirements[stage.refId].orEmpty().filter { refIds.contains(it) }
+            if (requisiteStageRefIds.isNotEmpty()) {
+                stageRequirements[stage.refId] = requisiteStageRefIds
+            }
+        }
+        part(i, Stages(segment, stageRequirements))
+    }
+
+    val runStages = children.mapIndexed { i, child ->
+        PipelineStage(
+                "pipeline${i + 1}",
+                RunPipeline(application, childPipelineId(child), pipelineParameters),
+                BaseStage("Run ${child.name}")
+        )
+    }
+    val segmentOf = IntArray(n)
+    segments.forEachIndexed { s, segment -> segment.forEach { segmentOf[graph.indexOf(it.refId)] = s } }
+    val runRequirements = LinkedHashMap<String, List<String>>()
+    segments.forEachIndexed { s, segment ->
+        val requiredSegments = sortedSetOf<Int>()
+        segment.forEach { stage ->
+            graph.predecessors[graph.indexOf(stage.refId)].forEach {
+                if (segmentOf[it] != s) {
+                    requiredSegments += segmentOf[it]
+                }
+            }
+        }
+        if (requiredSegments.isNotEmpty()) {
+            runRequirements[runStages[s].refId] = requiredSegments.map { runStages[it].refId }
+        }
+    }
+    val parent = copy(stages = Stages(runStages, runRequirements))
+    require(runStages.size <= limits.maxStages && pipelineBytes(parent) <= limits.maxBytes) {
+        "The ${runStages.size} stages running the parts of '$name' are over $limits"
+    }
+    return PipelinePartition(parent, children)
+}
+
+private val stagesAdapter by lazy { JsonAdapterFactory().createAdapter<Stages>() }
+
+private val pipelineAdapter by lazy { JsonAdapterFactory().createAdapter<PipelineModel>() }
+
+private fun pipelineBytes(pipeline: PipelineModel) = pipelineAdapter.toJson(pipeline).toByteArray().size.toLong()
+
+private fun PipelineModel.stageBytes(stage: PipelineStage): Long {
+    val requirements = stages.stageRequirements[stage.refId]
+    val single = Stages(listOf(stage), if (requirements == null) emptyMap() else mapOf(stage.refId to requirements))
+    return stagesAdapter.toJson(single).toByteArray().size.toLong()
+}
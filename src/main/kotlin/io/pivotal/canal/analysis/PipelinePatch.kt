@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import com.squareup.moshi.JsonReader
+import io.pivotal.canal.json.JsonAdapterFactory
+import io.pivotal.canal.json.canonicalNumber
+import io.pivotal.canal.json.toCanonicalJson
+import io.pivotal.canal.model.PipelineModel
+import io.pivotal.canal.model.Stages
+import io.pivotal.canal.model.extensions.InvalidStageGraphException
+import okio.Buffer
+
+/** One operation of an RFC 6902 JSON Patch, with [path] as a JSON Pointer. */
+sealed class JsonPatchOperation {
+    abstract val path: String
+
+    data class Add(override val path: String, val value: Any?) : JsonPatchOperation()
+    data class Remove(override val path: String) : JsonPatchOperation()
+    data class Replace(override val path: String, val value: Any?) : JsonPatchOperation()
+    data class Move(val from: String, override val path: String) : JsonPatchOperation()
+}
+
+data class PipelinePatch(val operations: List<JsonPatchOperation>) {
+    val isEmpty: Boolean get() = operations.isEmpty()
+
+    /** The operations as an RFC 6902 JSON Patch document, in canonical JSON. */
+    fun toJson(): String = valueAdapter.toCanonicalJson(operations.map {
+        when (it) {
+            is JsonPatchOperation.Add -> mapOf("op" to "add", "path" to it.path, "value" to it.value)
+            is JsonPatchOperation.Remove -> mapOf("op" to "remove", "path" to it.path)
+            is JsonPatchOperation.Replace -> mapOf("op" to "replace", "path" to it.path, "value" to it.value)
+            is JsonPatchOperation.Move -> mapOf("op" to "move", "from" to it.from, "path" to it.path)
+        }
+    })
+}
+
+/** Top level properties front50 adds to the pipelines it stores, which a generated pipeline never has. */
+val front50PipelineProperties: Set<String> = setOf("id", "application", "index", "updateTs", "lastModifiedBy")
+
+/**
+ * The JSON Patch that turns [publishedJson], a pipeline as it was last published, into this pipeline. Top level
+ * [ignoredProperties] of the published pipeline are left alone, and numbers that are equal as JSON are not changed.
+ *
+ * Stages are paired up regardless of refIds, as [Stages.diff] pairs them, so stages that were only renumbered are
+ * patched in place instead of the stages being replaced. Unpaired stages are removed or added and paired stages that
+ * changed places are moved. If the published stages cannot be read as a valid stage graph, they are compared by
+ * position instead.
+ */
+@JvmOverloads
+fun PipelineModel.patchFrom(
+        publishedJson: String,
+        ignoredProperties: Set<String> = front50PipelineProperties
+): PipelinePatch {
+    val published = JsonReader.of(Buffer().writeUtf8(publishedJson)).readJsonValue()
+    val generated = pipelineAdapter.toJsonValue(this)
+    val operations = ArrayList<JsonPatchOperation>()
+    if (published is Map<*, *> && generated is Map<*, *>) {
+        val stageMatches = stageMatches(publishedJson, stages)
+        diffObject("", published, generated, ignoredProperties, operations) { path, before, after ->
+            if (path == "/stages" && before is List<*> && after is List<*> && stageMatches != null) {
+                diffStages(path, before, after, stageMatches, operations)
+                true
+            } else {
+                false
+            }
+        }
+    } else {
+        diffValue("", published, generated, operations)
+    }
+    return PipelinePatch(operations)
+}
+
+private val pipelineAdapter by lazy { JsonAdapterFactory().createAdapter<PipelineModel>() }
+
+private val valueAdapter by lazy { JsonAdapterFactory().createAdapter<Any>() }
+
+/** Indexes of the published stages paired with indexes of [generated] stages, or null if they cannot be paired. */
+private fun stageMatches(publishedJson: String, generated: Stages): Map<Int, Int>? {
+    val published = try {
+        pipelineAdapter.fromJson(publishedJson)?.stages ?: return null
+    } catch (e: RuntimeException) {
+        // JsonDataException, but also what the model adapters throw for values of the wrong shape
+        return null
+    }
+    val publishedIndexes = published.stages.withIndex().associate { it.value.refId to it.index }
+    val generatedIndexes = generated.stages.withIndex().associate { it.value.refId to it.index }
+    if (publishedIndexes.size != published.stages.size || generatedIndexes.size != generated.stages.size) {
+        return null
+    }
+    val diff = try {
+        published.diff(generated)
+    } catch (e: InvalidStageGraphException) {
+        return null
+    }
+    return diff.matchedRefIds.entries.associate {
+        publishedIndexes.getValue(it.key) to generatedIndexes.getValue(it.value)
+    }
+}
+
+private fun diffValue(path: String, before: Any?, after: Any?, operations: MutableList<JsonPatchOperation>) {
+    when {
+        before is Map<*, *> && after is Map<*, *> -> diffObject(path, before, after, emptySet(), operations)
+        before is List<*> && after is List<*> -> diffArray(path, before, after, operations)
+        !jsonEquals(before, after) -> operations += JsonPatchOperation.Replace(path, after)
+    }
+}
+
+/** [diffProperty] can take over diffing a property by returning true. */
+private fun diffObject(
+        path: String,
+        before: Map<*, *>,
+        after: Map<*, *>,
+        ignoredProperties: Set<String>,
+        operations: MutableList<JsonPatchOperation>,
+        diffProperty: (path: String, before: Any?, after: Any?) -> Boolean = { _, _, _ -> false }
+) {
+    before.keys.forEach {
+        if (!after.containsKey(it) && !ignoredProperties.contains(it)) {
+            operations += JsonPatchOperation.Remove(pointer(path, it.toString()))
+        }
+    }
+    after.forEach { (name, value) ->
+        val propertyPath = pointer(path, name.toString())
+        when {
+            !before.containsKey(name) -> operations += JsonPatchOperation.Add(propertyPath, value)
+            !diffProperty(propertyPath, before[name], value) -> diffValue(propertyPath, before[name], value, operations)
+        }
+    }
+}
+
+private fun diffArray(path: String, before: List<*>, after: List<*>, operations: MutableList<JsonPatchOperation>) {
+    val common = minOf(before.size, after.size)
+    (0 until common).forEach { diffValue("$path/$it", before[it], after[it], operations) }
+    (common until after.size).forEach { operations += JsonPatchOperation.Add("$path/$it", after[it]) }
+    (before.size - 1 downTo common).forEach { operations += JsonPatchOperation.Remove("$path/$it") }
+}
+
+/**
+ * Removes the unpaired stages of [before], then builds up [after] in order, moving paired stages into place, patching
+ * them, and adding unpaired ones.
+ *
+ * While stage `i` of [after] is placed, the stages before `i` are in place and the paired stages of [before] that are
+ * not yet placed follow in their original order, so the current position of one of those is `i` plus the number of
+ * them that precede it, which [RemainingStages] counts.
+ */
+private fun diffStages(
+        path: String,
+        before: List<*>,
+        after: List<*>,
+        matches: Map<Int, Int>,
+        operations: MutableList<JsonPatchOperation>
+) {
+    val matchedBefore = matches.entries.associate { it.value to it.key }
+    val remaining = RemainingStages(before.size)
+    (before.size - 1 downTo 0).forEach {
+        if (matches.containsKey(it)) {
+            remaining.add(it)
+        } else {
+            operations += JsonPatchOperation.Remove("$path/$it")
+        }
+    }
+    after.forEachIndexed { i, stage ->
+        val beforeIndex = matchedBefore[i]
+        if (beforeIndex == null) {
+            operations += JsonPatchOperation.Add("$path/$i", stage)
+        } else {
+            val currentIndex = i + remaining.countBefore(beforeIndex)
+            if (currentIndex != i) {
+                operations += JsonPatchOperation.Move("$path/$currentIndex", "$path/$i")
+            }
+            remaining.remove(beforeIndex)
+            diffValue("$path/$i", before[beforeIndex], stage, operations)
+        }
+    }
+}
+
+/** Fenwick tree over the indexes of the published stages, counting the paired ones still to be placed. */
+private class RemainingStages(size: Int) {
+    private val counts = IntArray(size + 1)
+
+    fun add(index: Int) = update(index, 1)
+
+    fun remove(index: Int) = update(index, -1)
+
+    /** How many of the remaining indexes are below [index]. */
+    fun countBefore(index: Int): Int {
+        var count = 0
+        var i = index
+        while (i > 0) {
+            count += counts[i]
+            i -= i and -i
+        }
+        return count
+    }
+
+    private fun update(index: Int, delta: Int) {
+        var i = index + 1
+        while (i < counts.size) {
+            counts[i] += delta
+            i += i and -i
+        }
+    }
+}
+
+private fun jsonEquals(a: Any?, b: Any?): Boolean = when {
+    a is Number && b is Number -> canonicalNumber(a).compareTo(canonicalNumber(b)) == 0
+    a is Map<*, *> && b is Map<*, *> -> a.size == b.size && a.all { (name, value) ->
+        b.containsKey(name) && jsonEquals(value, b[name])
+    }
+    a is List<*> && b is List<*> -> a.size == b.size && a.indices.all { jsonEquals(a[it], b[it]) }
+    else -> a == b
+}
+
+private fun pointer(path: String, token: String) = "$path/${token.replace("~", "~0").replace("/", "~1")}"
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+import java.util.*
+
+/**
+ * Transitive closure of a stage graph, kept as a bitset of ancestors and one of descendants per stage, so that
+ * [precedes] is a single bit lookup and [ancestors] and [descendants] are a scan of one bitset.
+ *
+ * The index grows with the graph: [append] adds one stage, and [extendTo] adds the stages a DSL appended to the
+ * indexed [Stages], without recomputing the closure of the stages already indexed. Not thread-safe.
+ */
+class ReachabilityIndex(from: Stages = Stages()) {
+
+    private val stages = ArrayList<PipelineStage>()
+
+    private val requisiteStageRefIds = ArrayList<List<String>>()
+
+    private val indexByRefId = HashMap<String, Int>()
+
+    private val waitingDependents = HashMap<String, MutableList<Int>>()
+
+    private val ancestors = ArrayList<BitSet>()
+
+    private val descendants = ArrayList<BitSet>()
+
+    val size: Int get() = stages.size
+
+    init {
+        index(from)
+    }
+
+    /**
+     * Indexes a stage added after the stages indexed so far. Requisite refIds that name no indexed stage yet are
+     * linked when a stage with that refId is appended.
+     */
+    fun append(stage: PipelineStage, requisiteStageRefIds: List<String> = emptyList()) = apply {
+        check(!indexByRefId.containsKey(stage.refId)) { "RefId '${stage.refId}' is already indexed" }
+        val i = stages.size
+        val dependents = waitingDependents[stage.refId].orEmpty()
+        val downstream = BitSet()
+        dependents.forEach {
+            downstream.set(it)
+            downstream.or(descendants[it])
+        }
+        requisiteStageRefIds.forEach {
+            val p = indexByRefId[it]
+            check(it != stage.refId && (p == null || !downstream.get(p))) {
+                "Stage '${stage.refId}' cannot require '$it' without forming a cycle"
+            }
+        }
+
+        stages += stage
+        this.requisiteStageRefIds.add(requisiteStageRefIds)
+        indexByRefId[stage.refId] = i
+        ancestors += BitSet()
+        descendants += BitSet()
+        waitingDependents.remove(stage.refId)
+        dependents.forEach { addRequirement(i, it) }
+        requisiteStageRefIds.forEach { refId ->
+            val p = indexByRefId[refId]
+            if (p == null) {
+                waitingDependents.getOrPut(refId) { ArrayList() }.add(i)
+            } else {
+                addRequirement(p, i)
+            }
+        }
+    }
+
+    /**
+     * Indexes the stages [graph] has beyond the ones indexed so far. The indexed stages are expected to be the first
+     * stages of [graph], with unchanged requirements, as they are for graphs extended through the DSLs. Only the last
+     * indexed stage is compared to tell, so that extending stays proportional to the stages appended. If it differs, or
+     * the appended stages cannot be indexed on top of the indexed ones, the index is rebuilt from [graph] instead.
+     *
+     * @throws io.pivotal.canal.model.extensions.InvalidStageGraphException if a rebuild finds the stages do not form a
+     * valid DAG
+     */
+    fun extendTo(graph: Stages) = apply {
+        val last = size - 1
+        val extendsIndexedStages = graph.stages.size >= size && (last < 0 ||
+                graph.stages[last].refId == stages[last].refId &&
+                graph.stageRequirements[stages[last].refId].orEmpty() == requisiteStageRefIds[last])
+        if (!extendsIndexedStages) {
+            index(graph)
+            return@apply
+        }
+        try {
+            graph.stages.subList(size, graph.stages.size).forEach {
+                append(it, graph.stageRequirements[it.refId].orEmpty())
+            }
+        } catch (e: IllegalStateException) {
+            index(graph)
+        }
+    }
+
+    /** Whether the stage [refId] always finishes before the stage [laterRefId] starts. */
+    fun precedes(refId: String, laterRefId: String): Boolean {
+        val i = indexByRefId[refId] ?: return false
+        val j = indexByRefId[laterRefId] ?: return false
+        return descendants[i].get(j)
+    }
+
+    /** Stages that [refId] requires, directly or transitively, in stage order. */
+    fun ancestors(refId: String): List<PipelineStage> = stagesIn(ancestors, refId)
+
+    /** Stages that require [refId], directly or transitively, in stage order. */
+    fun descendants(refId: String): List<PipelineStage> = stagesIn(descendants, refId)
+
+    private fun stagesIn(reachable: List<BitSet>, refId: String): List<PipelineStage> {
+        val bits = reachable[indexByRefId[refId] ?: return emptyList()]
+        val result = ArrayList<PipelineStage>(bits.cardinality())
+        var i = bits.nextSetBit(0)
+        while (i >= 0) {
+            result += stages[i]
+            i = bits.nextSetBit(i + 1)
+        }
+        return result
+    }
+
+    private fun index(from: Stages) {
+        val graph = from.graph
+        val order = from.topologicalOrder().map { graph.indexOf(it.refId) }
+        stages.clear()
+        requisiteStageRefIds.clear()
+        indexByRefId.clear()
+        waitingDependents.clear()
+        ancestors.clear()
+        descendants.clear()
+        val n = graph.size
+        val ancestorSets = arrayOfNulls<BitSet>(n)
+        order.forEach { i ->
+            val reachable = BitSet(n)
+            graph.predecessors[i].forEach {
+                reachable.set(it)
+                reachable.or(ancestorSets[it])
+            }
+            ancestorSets[i] = reachable
+        }
+        val descendantSets = arrayOfNulls<BitSet>(n)
+        order.asReversed().forEach { i ->
+            val reachable = BitSet(n)
+            graph.successors[i].forEach {
+                reachable.set(it)
+                reachable.or(descendantSets[it])
+            }
+            descendantSets[i] = reachable
+        }
+        graph.stages.forEachIndexed { i, stage ->
+            stages += stage
+            requisiteStageRefIds.add(from.stageRequirements[stage.refId].orEmpty())
+            indexByRefId[stage.refId] = i
+            ancestors += ancestorSets[i]!!
+            descendants += descendantSets[i]!!
+        }
+    }
+
+    private fun addRequirement(requisite: Int, dependent: Int) {
+        if (descendants[requisite].get(dependent)) {
+            return
+        }
+        val upstream = ancestors[requisite].clone() as BitSet
+        upstream.set(requisite)
+        val downstream = descendants[dependent].clone() as BitSet
+        downstream.set(dependent)
+        var i = upstream.nextSetBit(0)
+        while (i >= 0) {
+            descendants[i].or(downstream)
+            i = upstream.nextSetBit(i + 1)
+        }
+        i = downstream.nextSetBit(0)
+        while (i >= 0) {
+            ancestors[i].or(upstream)
+            i = downstream.nextSetBit(i + 1)
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import java.util.*
+
+data class StageChange(
+        val before: PipelineStage,
+        val after: PipelineStage
+)
+
+data class StageGraphDiff(
+        val added: List<PipelineStage>,
+        val removed: List<PipelineStage>,
+        val modified: List<StageChange>,
+        val rewired: List<StageChange>,
+        val matchedRefIds: Map<String, String>
+) {
+    val isEmpty: Boolean get() = added.isEmpty() && removed.isEmpty() && modified.isEmpty() && rewired.isEmpty()
+}
+
+/**
+ * Compares the stages with [after], matching each stage to at most one stage of [after] regardless of refIds: first
+ * by content and upstream cone, then by content and downstream cone, then by content alone, and last by stage type.
+ * Within each round stages pair up in canonical order, see [StageHashes.canonicalOrder].
+ *
+ * Matched stages with different content are [StageGraphDiff.modified]; those whose requisite stages do not match
+ * are [StageGraphDiff.rewired]. A stage can be both. [StageGraphDiff.matchedRefIds] maps the refId of each matched
+ * stage to the refId it has in [after].
+ */
+fun Stages.diff(after: Stages): StageGraphDiff {
+    val beforeHashes = hashes()
+    val afterHashes = after.hashes()
+    val matchedRefIds = LinkedHashMap<String, String>()
+    val matchedBy = HashMap<String, String>()
+
+    fun matchBy(key: (StageHashes, PipelineStage) -> String) {
+        val candidates = HashMap<String, ArrayDeque<PipelineStage>>()
+        afterHashes.canonicalOrder.filter { !matchedBy.containsKey(it.refId) }.forEach {
+            candidates.getOrPut(key(afterHashes, it)) { ArrayDeque() }.add(it)
+        }
+        beforeHashes.canonicalOrder.filter { !matchedRefIds.containsKey(it.refId) }.forEach { stage ->
+            candidates[key(beforeHashes, stage)]?.poll()?.let {
+                matchedRefIds[stage.refId] = it.refId
+                matchedBy[it.refId] = stage.refId
+            }
+        }
+    }
+
+    matchBy { hashes, stage -> hashes.upstreamHash(stage.refId)!! }
+    matchBy { hashes, stage -> hashes.downstreamHash(stage.refId)!! }
+    matchBy { hashes, stage -> hashes.contentHash(stage.refId)!! }
+    matchBy { _, stage -> stage.stageConfig.type }
+
+    val beforeGraph = graph
+    val afterGraph = after.graph
+    val modified = ArrayList<StageChange>()
+    val rewired = ArrayList<StageChange>()
+    after.stages.forEach { stage ->
+        val beforeRefId = matchedBy[stage.refId] ?: return@forEach
+        val beforeStage = beforeGraph[beforeGraph.indexOf(beforeRefId)]
+        if (beforeHashes.contentHash(beforeRefId) != afterHashes.contentHash(stage.refId)) {
+            modified += StageChange(beforeStage, stage)
+        }
+        val requisitesBefore = beforeGraph.predecessors[beforeGraph.indexOf(beforeRefId)]
+                .map { matchedRefIds[beforeGraph[it].refId] }
+                .toSet()
+        val requisitesAfter = afterGraph.predecessors[afterGraph.indexOf(stage.refId)]
+                .map { afterGraph[it].refId }
+                .toSet()
+        if (requisitesBefore != requisitesAfter) {
+            rewired += StageChange(beforeStage, stage)
+        }
+    }
+
+    return StageGraphDiff(
+            after.stages.filter { !matchedBy.containsKey(it.refId) },
+            stages.filter { !matchedRefIds.containsKey(it.refId) },
+            modified,
+            rewired,
+            matchedRefIds
+    )
+}
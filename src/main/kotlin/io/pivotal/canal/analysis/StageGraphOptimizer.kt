@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+import java.util.ArrayDeque
+
+sealed class StageOptimization {
+    data class DisabledStageRemoved(val stage: PipelineStage) : StageOptimization()
+    data class PassingPreconditionsRemoved(val stage: PipelineStage) : StageOptimization()
+    data class WaitsFused(val fusedStages: List<PipelineStage>, val fused: PipelineStage) : StageOptimization()
+}
+
+data class OptimizedStages(
+        val stages: Stages,
+        val optimizations: List<StageOptimization>
+)
+
+data class OptimizedPipeline(
+        val pipeline: PipelineModel,
+        val optimizations: List<StageOptimization>
+)
+
+/**
+ * One rewrite of a stage graph that keeps what the pipeline does. Stages it removes hand their requisite stages on to
+ * the stages that required them.
+ */
+interface StageGraphPass {
+    fun optimize(stages: Stages, optimizations: MutableList<StageOptimization>): Stages
+}
+
+/** Removes stages whose `stageEnabled` is the literal expression `false`, which Orca would only skip. */
+object RemoveDisabledStages : StageGraphPass {
+    override fun optimize(stages: Stages, optimizations: MutableList<StageOptimization>): Stages {
+        val disabled = stages.stages.filter { isLiteral(it.common?.stageEnabled, false) }
+        disabled.forEach { optimizations += StageOptimization.DisabledStageRemoved(it) }
+        return stages.rewritten(disabled.map { it.refId to stages.stageRequirements[it.refId].orEmpty() }.toMap())
+    }
+}
+
+/** Removes [CheckPreconditions] stages whose preconditions are all the literal expression `true`. */
+object RemovePassingPreconditions : StageGraphPass {
+    override fun optimize(stages: Stages, optimizations: MutableList<StageOptimization>): Stages {
+        val passing = stages.stages.filter { stage ->
+            val stageConfig = stage.stageConfig
+            stageConfig is CheckPreconditions && stageConfig.preconditions.all {
+                it is ExpressionPrecondition && it.context.expression.trim() == "true"
+            }
+        }
+        passing.forEach { optimizations += StageOptimization.PassingPreconditionsRemoved(it) }
+        return stages.rewritten(passing.map { it.refId to stages.stageRequirements[it.refId].orEmpty() }.toMap())
+    }
+}
+
+/**
+ * Fuses chains of [Wait] stages with literal wait times into the first wait of the chain, where each wait is the only
+ * stage requiring the one before it and only requires that one. Waits with stage attributes other than a name or
+ * comments, or with an inject, are left alone.
+ */
+object FuseWaits : StageGraphPass {
+    override fun optimize(stages: Stages, optimizations: MutableList<StageOptimization>): Stages {
+        val graph = stages.graph
+        val removed = LinkedHashMap<String, List<String>>()
+        val replaced = HashMap<String, PipelineStage>()
+        stages.topologicalOrder().forEach { head ->
+            if (removed.containsKey(head.refId) || literalWaitTime(head) == null) {
+                return@forEach
+            }
+            val chain = arrayListOf(head)
+            var i = graph.indexOf(head.refId)
+            while (graph.successors[i].size == 1) {
+                val next = graph.successors[i][0]
+                if (graph.predecessors[next].size != 1 || literalWaitTime(graph[next]) == null) {
+                    break
+                }
+                chain += graph[next]
+                removed[graph[next].refId] = listOf(head.refId)
+                i = next
+            }
+            if (chain.size > 1) {
+                val fused = head.copy(stageConfig = Wait(chain.map { literalWaitTime(it)!! }.sum()))
+                replaced[head.refId] = fused
+                optimizations += StageOptimization.WaitsFused(chain, fused)
+            }
+        }
+        return stages.rewritten(removed, replaced)
+    }
+
+    private fun literalWaitTime(stage: PipelineStage): Long? {
+        val stageConfig = stage.stageConfig
+        val plain = stage.inject == null &&
+                (stage.common ?: BaseStage()).copy(name = null, comments = null) == BaseStage()
+        return if (plain && stageConfig is Wait) stageConfig.waitTime.trim().toLongOrNull() else null
+    }
+}
+
+val defaultStageGraphPasses: List<StageGraphPass> = listOf(RemoveDisabledStages, RemovePassingPreconditions, FuseWaits)
+
+/**
+ * Runs [passes] over the stages in order, reporting every stage they removed or fused.
+ *
+ * @throws io.pivotal.canal.model.extensions.InvalidStageGraphException if the stages do not form a valid DAG
+ */
+@JvmOverloads
+fun Stages.optimize(passes: List<StageGraphPass> = defaultStageGraphPasses): OptimizedStages {
+    topologicalOrder()
+    val optimizations = ArrayList<StageOptimization>()
+    val optimized = passes.fold(this) { stages, pass -> pass.optimize(stages, optimizations) }
+    return OptimizedStages(optimized, optimizations)
+}
+
+@JvmOverloads
+fun PipelineModel.optimize(passes: List<StageGraphPass> = defaultStageGraphPasses): OptimizedPipeline {
+    val optimized = stages.optimize(passes)
+    val pipeline = if (optimized.optimizations.isEmpty()) this else copy(stages = optimized.stages)
+    return OptimizedPipeline(pipeline, optimized.optimizations)
+}
+
+private fun isLiteral(condition: Condition?, value: Boolean): Boolean =
+        condition is ExpressionCondition && condition.expression.trim() == value.toString()
+
+/**
+ * Drops the stages keyed in [removed], replacing each requirement on one of them with the refIds it maps to, and
+ * swaps in [replaced] stages by refId.
+ */
+private fun Stages.rewritten(
+        removed: Map<String, List<String>>,
+        replaced: Map<String, PipelineStage> = emptyMap()
+): Stages {
+    if (removed.isEmpty() && replaced.isEmpty()) {
+        return this
+    }
+    val substitutes = HashMap<String, List<String>>()
+    fun substitute(refId: String): List<String> {
+        if (!removed.containsKey(refId)) {
+            return listOf(refId)
+        }
+        // resolves removed stages after the removed stages they require, on a stack rather than the call stack, so
+        // long chains of removed stages do not overflow it
+        val pending = ArrayDeque<String>()
+        pending.push(refId)
+        while (pending.isNotEmpty()) {
+            val next = pending.peek()
+            val requisites = removed.getValue(next)
+            val unresolved = requisites.filter { removed.containsKey(it) && !substitutes.containsKey(it) }
+            if (unresolved.isEmpty()) {
+                pending.pop()
+                substitutes.getOrPut(next) { requisites.flatMap { substitutes[it] ?: listOf(it) }.distinct() }
+            } else {
+                unresolved.forEach { pending.push(it) }
+            }
+        }
+        return substitutes.getValue(refId)
+    }
+
+    val stageRequirements = LinkedHashMap<String, List<String>>()
+    this.stageRequirements.forEach { (refId, requisiteStageRefIds) ->
+        if (!removed.containsKey(refId)) {
+            val rewired = requisiteStageRefIds.flatMap { substitute(it) }.distinct()
+            if (rewired.isNotEmpty()) {
+                stageRequirements[refId] = rewired
+            }
+        }
+    }
+    val stages = stages.filter { !removed.containsKey(it.refId) }.map { replaced[it.refId] ?: it }
+    return Stages(stages, stageRequirements)
+}
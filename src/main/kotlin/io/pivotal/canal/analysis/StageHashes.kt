@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.json.JsonAdapterFactory
+import io.pivotal.canal.json.toCanonicalJson
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+import java.security.MessageDigest
+import java.util.*
+
+/**
+ * SHA-256 hashes of the stages of a graph, none of which depend on refIds or on the order of the stages.
+ *
+ * The content hash of a stage covers its [SpecificStageConfig], [BaseStage] and [Inject], with no [BaseStage] hashed
+ * like an empty one. Its upstream hash also covers the upstream hashes of its requisite stages, Merkle style, so a
+ * changed stage changes the upstream hashes of its downstream cone only. The downstream hash is the mirror image, and
+ * the two together place a stage in the graph well enough to order the stages canonically.
+ */
+class StageHashes private constructor(
+        val stages: Stages,
+        private val order: List<Int>,
+        private val contentHashes: Array<ByteArray>,
+        private val upstreamHashes: Array<ByteArray>
+) {
+
+    private val graph = stages.graph
+
+    fun contentHash(refId: String): String? = hashOf(contentHashes, refId)
+
+    fun upstreamHash(refId: String): String? = hashOf(upstreamHashes, refId)
+
+    fun downstreamHash(refId: String): String? = hashOf(downstreamHashes, refId)
+
+    private val downstreamHashes: Array<ByteArray> by lazy {
+        val hashes = arrayOfNulls<ByteArray>(graph.size)
+        order.asReversed().forEach { i ->
+            hashes[i] = merkleHash(contentHashes[i], graph.successors[i].map { hashes[it]!! })
+        }
+        hashes.requireNoNulls()
+    }
+
+    /**
+     * The stages ordered by requirements first, then by upstream and downstream hash. Stages whose hashes tie keep
+     * their relative order.
+     */
+    val canonicalOrder: List<PipelineStage> by lazy {
+        canonicalIndexes.map { graph[it] }
+    }
+
+    /**
+     * The stages in [canonicalOrder], with refIds numbered by position as the DSLs number them and a missing
+     * [BaseStage] written as an empty one. Two graphs that differ only in refIds and in the order of their stages and
+     * requirements get the same form unless they have stages whose hashes tie: those keep their order in [stages], so
+     * tied stages that are not interchangeable, which hashes of the cones around a stage cannot always tell apart, can
+     * come out in a different order.
+     */
+    val canonicalForm: Stages by lazy {
+        val positions = canonicalPositions
+        val refIds = canonicalIndexes.mapIndexed { position, i -> graph[i].stageConfig.type + (position + 1) }
+        val stageRequirements = LinkedHashMap<String, List<String>>()
+        val canonicalStages = canonicalIndexes.mapIndexed { position, i ->
+            val requisites = graph.predecessors[i].map { positions[it] }.sorted()
+            if (requisites.isNotEmpty()) {
+                stageRequirements[refIds[position]] = requisites.map { refIds[it] }
+            }
+            graph[i].copy(refId = refIds[position], common = graph[i].common ?: BaseStage())
+        }
+        Stages(canonicalStages, stageRequirements)
+    }
+
+    /** Hash of the [canonicalForm]. */
+    val fingerprint: String by lazy {
+        val digest = MessageDigest.getInstance(ALGORITHM)
+        val positions = canonicalPositions
+        canonicalIndexes.forEach { i ->
+            digest.update(contentHashes[i])
+            graph.predecessors[i].map { positions[it] }.sorted().forEach { digest.update(intBytes(it)) }
+            digest.update(intBytes(-1))
+        }
+        toHex(digest.digest())
+    }
+
+    private val canonicalIndexes: List<Int> by lazy {
+        val labels = Array(graph.size) {
+            MessageDigest.getInstance(ALGORITHM).run {
+                update(upstreamHashes[it])
+                update(downstreamHashes[it])
+                digest()
+            }
+        }
+        val remainingRequisites = IntArray(graph.size) { graph.predecessors[it].size }
+        val ready = PriorityQueue<Int>(Comparator { a, b ->
+            compareHashes(labels[a], labels[b]).let { if (it != 0) it else a.compareTo(b) }
+        })
+        (0 until graph.size).filter { remainingRequisites[it] == 0 }.forEach { ready.add(it) }
+        val indexes = ArrayList<Int>(graph.size)
+        while (ready.isNotEmpty()) {
+            val i = ready.poll()
+            indexes += i
+            graph.successors[i].forEach {
+                if (--remainingRequisites[it] == 0) {
+                    ready.add(it)
+                }
+            }
+        }
+        indexes
+    }
+
+    private val canonicalPositions: IntArray by lazy {
+        val positions = IntArray(graph.size)
+        canonicalIndexes.forEachIndexed { position, i -> positions[i] = position }
+        positions
+    }
+
+    private fun hashOf(hashes: Array<ByteArray>, refId: String): String? {
+        val i = graph.indexOf(refId)
+        return if (i < 0) null else toHex(hashes[i])
+    }
+
+    companion object {
+
+        private val stageConfigAdapter by lazy { JsonAdapterFactory().createAdapter<SpecificStageConfig>() }
+
+        private val baseStageAdapter by lazy { JsonAdapterFactory().createAdapter<BaseStage>() }
+
+        private val injectAdapter by lazy { JsonAdapterFactory().createAdapter<Inject>() }
+
+        /**
+         * Hashes [stages], reusing the content and upstream hashes of [previous] for stages that are unchanged and
+         * whose requisite stages are unchanged.
+         *
+         * @throws io.pivotal.canal.model.extensions.InvalidStageGraphException if the stages do not form a valid DAG
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun of(stages: Stages, previous: StageHashes? = null): StageHashes {
+            val graph = stages.graph
+            val order = stages.topologicalOrder().map { graph.indexOf(it.refId) }
+            val n = graph.size
+            val contentHashes = arrayOfNulls<ByteArray>(n)
+            val upstreamHashes = arrayOfNulls<ByteArray>(n)
+            val rehashed = BooleanArray(n)
+            order.forEach { i ->
+                val stage = graph[i]
+                val p = previous?.graph?.indexOf(stage.refId) ?: -1
+                val unchanged = p >= 0 && previous!!.graph[p] == stage
+                contentHashes[i] = if (unchanged) previous!!.contentHashes[p] else contentHash(stage)
+                val requisitesUnchanged = unchanged &&
+                        stages.stageRequirements[stage.refId] == previous!!.stages.stageRequirements[stage.refId] &&
+                        graph.predecessors[i].none { rehashed[it] }
+                if (requisitesUnchanged) {
+                    upstreamHashes[i] = previous!!.upstreamHashes[p]
+                } else {
+                    upstreamHashes[i] = merkleHash(contentHashes[i]!!, graph.predecessors[i].map { upstreamHashes[it]!! })
+                    rehashed[i] = true
+                }
+            }
+            return StageHashes(stages, order, contentHashes.requireNoNulls(), upstreamHashes.requireNoNulls())
+        }
+
+        private fun contentHash(stage: PipelineStage): ByteArray {
+            val digest = MessageDigest.getInstance(ALGORITHM)
+            digest.update(stageConfigAdapter.toCanonicalJson(stage.stageConfig).toByteArray())
+            digest.update(0)
+            digest.update(baseStageAdapter.toCanonicalJson(stage.common ?: BaseStage()).toByteArray())
+            digest.update(0)
+            digest.update(injectAdapter.toCanonicalJson(stage.inject).toByteArray())
+            return digest.digest()
+        }
+
+        private fun merkleHash(content: ByteArray, linkedHashes: List<ByteArray>): ByteArray {
+            val digest = MessageDigest.getInstance(ALGORITHM)
+            digest.update(content)
+            linkedHashes.sortedWith(Comparator { a, b -> compareHashes(a, b) }).forEach { digest.update(it) }
+            return digest.digest()
+        }
+
+        private fun compareHashes(a: ByteArray, b: ByteArray): Int {
+            for (i in 0 until minOf(a.size, b.size)) {
+                val c = (a[i].toInt() and 0xff).compareTo(b[i].toInt() and 0xff)
+                if (c != 0) {
+                    return c
+                }
+            }
+            return a.size.compareTo(b.size)
+        }
+
+        private fun intBytes(value: Int): ByteArray =
+                byteArrayOf((value shr 24).toByte(), (value shr 16).toByte(), (value shr 8).toByte(), value.toByte())
+    }
+}
+
+fun Stages.hashes(): StageHashes = StageHashes.of(this)
+
+fun Stages.canonicalForm(): Stages = hashes().canonicalForm
+
+/**
+ * Hash of the pipeline that ignores stage refIds and the order of stages, for telling whether a pipeline changed.
+ */
+fun PipelineModel.fingerprint(): String {
+    val digest = MessageDigest.getInstance(ALGORITHM)
+    digest.update(pipelineAdapter.toCanonicalJson(copy(stages = Stages())).toByteArray())
+    digest.update(0)
+    digest.update(stages.hashes().fingerprint.toByteArray())
+    return toHex(digest.digest())
+}
+
+private const val ALGORITHM = "SHA-256"
+
+private val pipelineAdapter by lazy { JsonAdapterFactory().createAdapter<PipelineModel>() }
+
+private fun toHex(hash: ByteArray): String = hash.joinToString("") { String.format("%02x", it) }
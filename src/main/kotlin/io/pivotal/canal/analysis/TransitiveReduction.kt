@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.extensions.topologicalOrder
+import java.util.*
+
+data class TransitiveReduction(
+        val stages: Stages,
+        val removedRequirements: Map<String, List<String>>
+) {
+    val removedEdgeCount: Int get() = removedRequirements.values.sumBy { it.size }
+}
+
+/**
+ * Drops each requisite stage refId that is already implied by another requisite stage, e.g. `c` requiring `a` when
+ * it also requires `b` and `b` requires `a`. A stage still starts only after all the stages it used to require, so
+ * execution order is unchanged.
+ *
+ * Reachability is kept as one bitset of descendants per stage, indexed by topological position.
+ */
+fun Stages.transitiveReduction(): TransitiveReduction {
+    val graph = this.graph
+    val order = topologicalOrder().map { graph.indexOf(it.refId) }
+    val n = graph.size
+    val position = IntArray(n)
+    order.forEachIndexed { p, i -> position[i] = p }
+
+    val descendants = arrayOfNulls<BitSet>(n)
+    order.asReversed().forEach { i ->
+        val reachable = BitSet(n)
+        graph.successors[i].forEach {
+            reachable.set(position[it])
+            reachable.or(descendants[it])
+        }
+        descendants[i] = reachable
+    }
+
+    val redundantRequisites = arrayOfNulls<MutableSet<Int>>(n)
+    (0 until n).forEach { p ->
+        val successors = graph.successors[p]
+        if (successors.size > 1) {
+            val implied = BitSet(n)
+            successors.forEach { implied.or(descendants[it]) }
+            successors.filter { implied.get(position[it]) }.forEach {
+                redundantRequisites[it] = (redundantRequisites[it] ?: HashSet()).apply { add(p) }
+            }
+        }
+    }
+
+    val removedRequirements = LinkedHashMap<String, List<String>>()
+    val reducedRequirements = LinkedHashMap<String, List<String>>(stageRequirements.size * 2)
+    stageRequirements.forEach { (refId, requisiteStageRefIds) ->
+        val redundant = redundantRequisites.getOrNull(graph.indexOf(refId))
+        if (redundant == null) {
+            reducedRequirements[refId] = requisiteStageRefIds
+        } else {
+            val (removed, kept) = requisiteStageRefIds.partition { redundant.contains(graph.indexOf(it)) }
+            reducedRequirements[refId] = kept
+            removedRequirements[refId] = removed
+        }
+    }
+    return TransitiveReduction(Stages(stages, reducedRequirements), removedRequirements)
+}
@@ -39,21 +39,18 @@ class ExpressionEvaluator(val pipelineExecution: PipelineExecution = PipelineExe
     )
 
     fun evaluate(pipeline: PipelineModel): PipelineModel {
-        return evaluateWithAdapter(pipeline, JsonAdapterFactory().createAdapter(), pipelineExecution)
+        return evaluateWithAdapter(pipeline, pipelineAdapter, pipelineExecution)
     }
 
     fun evaluate(template: PipelineTemplate, pipelineConfig: PipelineTemplateInstance): PipelineTemplate {
         val executionWithPipelineConfigVariables = pipelineExecution
                 .copy(templateVariables = pipelineConfig.config.variables)
-        return evaluateWithAdapter(template, JsonAdapterFactory().createAdapter(),
-                executionWithPipelineConfigVariables)
+        return evaluateWithAdapter(template, templateAdapter, executionWithPipelineConfigVariables)
     }
 
     @Suppress("UNCHECKED_CAST")
     private fun <T>evaluateWithAdapter(m: T, adapter: JsonAdapter<T>, context: Any): T {
         val json = adapter.toJson(m)
-        val moshi = Moshi.Builder().build()
-        val mapAdapter = moshi.adapter(Map::class.java)
         val pipelineMap = mapAdapter.fromJson(json)
         val summary = ExpressionEvaluationSummary()
         val evaluatedPipelineMap =  expressionEvaluator.evaluate(
@@ -70,4 +67,10 @@ class ExpressionEvaluator(val pipelineExecution: PipelineExecution = PipelineExe
 
 }
 
+private val pipelineAdapter by lazy { JsonAdapterFactory().createAdapter<PipelineModel>() }
+
+private val templateAdapter by lazy { JsonAdapterFactory().createAdapter<PipelineTemplate>() }
+
+private val mapAdapter by lazy { Moshi.Builder().build().adapter(Map::class.java) }
+
 class IllegalExpressionException(val summary: ExpressionEvaluationSummary) : Exception("Failed to evaluate expressions!")
@@ -17,21 +17,11 @@
 package io.pivotal.canal.extensions.fluentstages
 
 import io.pivotal.canal.model.*
-import java.lang.IllegalStateException
+import io.pivotal.canal.model.extensions.checkRefIdIsUnused
 
-val Stages.firstStages: List<PipelineStage> get() {
-    val stagesThatRequireStages = this.stageRequirements.keys
-    return this.stages.filter {
-        !(stagesThatRequireStages.contains(it.refId))
-    }
-}
+val Stages.firstStages: List<PipelineStage> get() = graph.firstStages
 
-val Stages.lastStages: List<PipelineStage> get() {
-    val stagesThatAreRequiredByStages = this.stageRequirements.values.flatten().distinct()
-    return this.stages.filter {
-        !(stagesThatAreRequiredByStages.contains(it.refId))
-    }
-}
+val Stages.lastStages: List<PipelineStage> get() = trackedTerminalStages
 
 val Stages.stageCount: Int get() {
     return this.stages.size
@@ -43,14 +33,8 @@ private fun Stages.insertStage(stageConfig: SpecificStageConfig,
 ): Stages {
     val nextStageCount = stageCount + 1
     val nextRefId = execution.refId ?: stageConfig.type + nextStageCount.toString()
-    val nextStage = listOf(PipelineStage(nextRefId, stageConfig, base, execution.inject))
-    val allStages = this.stages + nextStage
-    val allStageRequirements = if (execution.requisiteStageRefIds.isEmpty()) {
-        this.stageRequirements
-    } else {
-        this.stageRequirements + mapOf(nextRefId to execution.requisiteStageRefIds)
-    }
-    return Stages(allStages, allStageRequirements)
+    val nextStage = PipelineStage(nextRefId, stageConfig, base, execution.inject)
+    return StagesBuilder(this).addStage(nextStage, execution.requisiteStageRefIds).build()
 }
 
 fun Stages.addStage(stageConfig: SpecificStageConfig,
@@ -89,41 +73,15 @@ fun Stages.parallel(vararg stages: Stages): Stages {
 }
 
 fun Stages.parallel(stages: List<Stages>): Stages {
-    var currentStageCount = stageCount
-    var newStages: List<PipelineStage> = emptyList()
-    var newStageRequirements: Map<String, List<String>> = mapOf()
-    stages.forEach {
-        val initialStages = it.firstStages
-        var nextStages: List<PipelineStage> = emptyList()
-        val currentStageGraph = it
-        var subStageGraphStageRequirements = currentStageGraph.stageRequirements
-        it.stages.forEach {
-            val oldRefId = it.refId
-            val newRefId = "${oldRefId.subSequence(0, oldRefId.length-1)}${++currentStageCount}"
-            val pStage = it.copy(refId = newRefId)
-            newStages += pStage
-            if (initialStages.contains(it)) {
-                nextStages += pStage
-            }
-            if (currentStageGraph.stageRequirements.containsKey(newRefId)) {
-                throw IllegalStateException("New RefId '$newRefId' is already used as a key in stage graph: $currentStageGraph")
-            }
-            if (currentStageGraph.stageRequirements.values.flatten().contains(newRefId)) {
-                throw IllegalStateException("New RefId '$newRefId' is already used as a value in stage graph: $currentStageGraph")
-            }
-            subStageGraphStageRequirements = subStageGraphStageRequirements.entries.associate {
-                val key = if (it.key == oldRefId) newRefId else it.key
-                val value = it.value.map { if (it == oldRefId) newRefId else it}
-                key to value
-            }
+    val builder = StagesBuilder(this)
+    val fanInRefIds = builder.terminalStages.map { it.refId }
+    stages.forEach { stageGraph ->
+        val initial = { stage: PipelineStage -> !stageGraph.stageRequirements.containsKey(stage.refId) }
+        builder.addGraph(stageGraph, fanInRefIds, initial) { refId, stageNumber ->
+            val newRefId = "${refId.subSequence(0, refId.length - 1)}$stageNumber"
+            stageGraph.checkRefIdIsUnused(newRefId, "stage graph")
+            newRefId
         }
-        newStageRequirements += subStageGraphStageRequirements
-        val requiredStagesForFanOut = nextStages.map {
-            (it.refId to lastStages.map { it.refId })
-        }.toMap()
-        newStageRequirements += requiredStagesForFanOut
     }
-    val allStages = this.stages + newStages
-    val allStageRequirements = this.stageRequirements + newStageRequirements
-    return Stages(allStages, allStageRequirements)
+    return builder.build()
 }
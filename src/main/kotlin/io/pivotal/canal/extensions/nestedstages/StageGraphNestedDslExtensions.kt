@@ -25,15 +25,29 @@ fun stages (stageDefOperation: StageDef.() -> Unit): Stages {
     return currentStageGraph.stages
 }
 
-private val Stages.terminalStages: List<PipelineStage> get() {
-    val stagesThatAreRequiredByStages = this.stageRequirements.values.flatten().distinct()
-    return this.stages.filter {
-        !(stagesThatAreRequiredByStages.contains(it.refId))
+/**
+ * The graph the nested DSL is building. Stages are appended to one [StagesBuilder], which keeps track of the terminal
+ * stages as they are inserted, so nesting `then` blocks does not re-index the graph.
+ */
+class MutableRefStageGraph(stages: Stages) {
+
+    private var builder = StagesBuilder(stages)
+
+    var stages: Stages
+        get() = builder.build()
+        set(value) {
+            builder = StagesBuilder(value)
+        }
+
+    val stageCount: Int get() = builder.stageCount
+
+    val terminalRefIds: List<String> get() = builder.terminalStages.map { it.refId }
+
+    fun insertStage(stage: PipelineStage, requisiteStageRefIds: List<String>) {
+        builder.addStage(stage, requisiteStageRefIds)
     }
 }
 
-class MutableRefStageGraph(var stages: Stages)
-
 class StageFlags(
         val completeOtherBranchesThenFail: Boolean? = null,
         val continuePipeline: Boolean? = null,
@@ -43,7 +57,7 @@ class StageFlags(
 
 class StageDef(val current: MutableRefStageGraph, specifiedTerminalIds : List<String>? = null ) {
 
-    val currentTerminalIds = specifiedTerminalIds ?: current.stages.terminalStages.map { it.refId }
+    val currentTerminalIds = specifiedTerminalIds ?: current.terminalRefIds
 
     fun stage(stageConfig: SpecificStageConfig,
               name: String? = null,
@@ -54,7 +68,7 @@ class StageDef(val current: MutableRefStageGraph, specifiedTerminalIds : List<St
               restrictedExecutionWindow: RestrictedExecutionWindow? = null,
               execution: StageExecution = StageExecution()): SingleStage {
         val newStageRequirements = execution.requisiteStageRefIds + currentTerminalIds
-        val newStage = current.stages.newStage(stageConfig,
+        val newStage = newStage(stageConfig,
                 BaseStage(
                         name,
                         comments,
@@ -69,34 +83,20 @@ class StageDef(val current: MutableRefStageGraph, specifiedTerminalIds : List<St
                 execution.refId,
                 execution.inject
         )
-        current.stages = current.stages.insertStage(
-                newStage,
-                newStageRequirements)
+        current.insertStage(newStage, newStageRequirements)
         return SingleStage(current, newStage.refId)
     }
 
-    private fun Stages.newStage(stageConfig: SpecificStageConfig,
-                                base: BaseStage?,
-                                refId: String?,
-                                inject: Inject?
+    private fun newStage(stageConfig: SpecificStageConfig,
+                         base: BaseStage?,
+                         refId: String?,
+                         inject: Inject?
 
     ): PipelineStage {
-        val nextStageCount = stages.size + 1
+        val nextStageCount = current.stageCount + 1
         val nextRefId = refId ?: stageConfig.type + nextStageCount.toString()
         return PipelineStage(nextRefId, stageConfig, base, inject)
     }
-
-    private fun Stages.insertStage(stage: PipelineStage,
-                                   requisiteStageRefIds: List<String>
-    ): Stages {
-        val allStages = this.stages + listOf(stage)
-        val allStageRequirements = if (requisiteStageRefIds.isEmpty()) {
-            this.stageRequirements
-        } else {
-            this.stageRequirements + mapOf(stage.refId to requisiteStageRefIds)
-        }
-        return Stages(allStages, allStageRequirements)
-    }
 }
 
 interface StageDefInvoker {
@@ -105,7 +105,7 @@ interface StageDefInvoker {
 
 class ParallelStages(val current: MutableRefStageGraph, specifiedTerminalIds : List<String>? = null) : StageDefInvoker {
 
-    val currentTerminalIds = specifiedTerminalIds ?: current.stages.terminalStages.map { it.refId }
+    val currentTerminalIds = specifiedTerminalIds ?: current.terminalRefIds
 
     override infix fun then(stageDef: StageDef.() -> Unit): ParallelStages {
         val nsg = StageDef(current, currentTerminalIds)
@@ -19,7 +19,10 @@ package io.pivotal.canal.json
 import com.squareup.moshi.*
 import io.pivotal.canal.model.*
 import java.lang.reflect.Type
+import java.math.BigDecimal
+import kotlin.reflect.KProperty1
 import kotlin.reflect.full.memberProperties
+import kotlin.reflect.jvm.javaGetter
 
 class PipelineTemplateInstanceAdapter {
 
@@ -50,7 +53,11 @@ class PipelineTemplateInstanceAdapter {
 
 }
 
-class StageGraphAdapter {
+/**
+ * @param tolerateUnknownStageTypes read stages whose type is not in [stageConfigTypes] as [UnknownStage]s instead of
+ * failing
+ */
+class StageGraphAdapter(val tolerateUnknownStageTypes: Boolean = false) {
     val stageAdapter by lazy {
         JsonAdapterFactory().createAdapter<SpecificStageConfig>()
     }
@@ -60,6 +67,21 @@ class StageGraphAdapter {
     val commonStageAttributesAdapter by lazy {
         JsonAdapterFactory().createAdapter<BaseStage>()
     }
+    private val stringAdapter by lazy { JsonAdapterFactory().createAdapter<String>() }
+    private val booleanAdapter by lazy { JsonAdapterFactory.moshi.adapter<Boolean>(Boolean::class.javaObjectType) }
+    private val refIdsAdapter by lazy {
+        JsonAdapterFactory.moshi.adapter<List<String>>(Types.newParameterizedType(List::class.java, String::class.java))
+    }
+    private val injectAdapter by lazy { JsonAdapterFactory().createAdapter<Inject>() }
+    private val conditionAdapter by lazy { JsonAdapterFactory().createAdapter<Condition>() }
+    private val notificationsAdapter by lazy {
+        JsonAdapterFactory.moshi.adapter<List<Notification>>(
+                Types.newParameterizedType(List::class.java, Notification::class.java))
+    }
+    private val restrictedExecutionWindowAdapter by lazy {
+        JsonAdapterFactory().createAdapter<RestrictedExecutionWindow>()
+    }
+    private val valueAdapter by lazy { JsonAdapterFactory().createAdapter<Any>() }
 
     @ToJson
     fun toJson(writer: JsonWriter, stages: Stages) {
@@ -81,56 +103,193 @@ class StageGraphAdapter {
     }
 
     @FromJson
-    fun fromJson(stageMaps: List<Map<String, @JvmSuppressWildcards Any>>): Stages {
-        var stages: List<PipelineStage> = emptyList()
-        var stageRequirements: Map<String, List<String>> = mapOf()
-        stageMaps.map {
-            val stage = stageAdapter.fromJsonValue(it)!!
-            val execution = executionDetailsAdapter.fromJsonValue(it)!!
-            val common = commonStageAttributesAdapter.fromJsonValue(it)
-            val refId = execution.refId!!
-            stages += PipelineStage(refId, stage, common, execution.inject)
-            if (execution.requisiteStageRefIds.isNotEmpty()) {
-                stageRequirements += (refId to execution.requisiteStageRefIds.map { it })
+    fun fromJson(reader: JsonReader): Stages {
+        val stages = ArrayList<PipelineStage>()
+        val stageRequirements = LinkedHashMap<String, List<String>>()
+        reader.beginArray()
+        while (reader.hasNext()) {
+            val (stage, requisiteStageRefIds) = readStage(reader)
+            stages += stage
+            if (requisiteStageRefIds.isNotEmpty()) {
+                stageRequirements[stage.refId] = requisiteStageRefIds
             }
         }
+        reader.endArray()
         return Stages(stages, stageRequirements)
     }
+
+    /**
+     * Reads one stage object in a single pass, decoding the execution and common stage attributes as they come and
+     * only gathering the remaining fields for the stage config adapter.
+     */
+    private fun readStage(reader: JsonReader): Pair<PipelineStage, List<String>> {
+        var refId: String? = null
+        var requisiteStageRefIds: List<String>? = null
+        var inject: Inject? = null
+        var common = BaseStage()
+        val stageConfigJson = LinkedHashMap<String, Any?>()
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            when (name) {
+                "refId" -> refId = stringAdapter.fromJson(reader)
+                "requisiteStageRefIds" -> requisiteStageRefIds = refIdsAdapter.fromJson(reader)
+                "inject" -> inject = injectAdapter.fromJson(reader)
+                "name" -> common = common.copy(name = stringAdapter.fromJson(reader))
+                "comments" -> common = common.copy(comments = stringAdapter.fromJson(reader))
+                "stageEnabled" -> common = common.copy(stageEnabled = conditionAdapter.fromJson(reader))
+                "notifications" -> common = common.copy(notifications = notificationsAdapter.fromJson(reader))
+                "completeOtherBranchesThenFail" ->
+                    common = common.copy(completeOtherBranchesThenFail = booleanAdapter.fromJson(reader))
+                "continuePipeline" -> common = common.copy(continuePipeline = booleanAdapter.fromJson(reader))
+                "failPipeline" -> common = common.copy(failPipeline = booleanAdapter.fromJson(reader))
+                "failOnFailedExpressions" ->
+                    common = common.copy(failOnFailedExpressions = booleanAdapter.fromJson(reader))
+                "restrictedExecutionWindow" ->
+                    common = common.copy(restrictedExecutionWindow = restrictedExecutionWindowAdapter.fromJson(reader))
+                else -> stageConfigJson[name] =
+                        if (tolerateUnknownStageTypes) readLosslessValue(reader) else valueAdapter.fromJson(reader)
+            }
+        }
+        reader.endObject()
+        if (refId == null) {
+            throw JsonDataException("Stage without a refId at ${reader.path}")
+        }
+        val type = stageConfigJson["type"]
+        val stageConfig = if (!tolerateUnknownStageTypes) {
+            stageAdapter.fromJsonValue(stageConfigJson)!!
+        } else if (type !is String || !stageConfigTypes.containsKey(type)) {
+            UnknownStage(type?.toString() ?: "", stageConfigJson - "type")
+        } else {
+            stageAdapter.fromJsonValue(stageConfigJson.mapValues { toJsonNumbers(it.value) })!!
+        }
+        return PipelineStage(refId, stageConfig, common, inject) to requisiteStageRefIds.orEmpty()
+    }
+
+    /**
+     * Reads a value without losing any digits of its numbers: those are read as [Int]s or [Long]s if they are whole
+     * and fit, and as [BigDecimal]s otherwise.
+     */
+    private fun readLosslessValue(reader: JsonReader): Any? = when (reader.peek()) {
+        JsonReader.Token.BEGIN_OBJECT -> {
+            val map = LinkedHashMap<String, Any?>()
+            reader.beginObject()
+            while (reader.hasNext()) {
+                map[reader.nextName()] = readLosslessValue(reader)
+            }
+            reader.endObject()
+            map
+        }
+        JsonReader.Token.BEGIN_ARRAY -> {
+            val list = ArrayList<Any?>()
+            reader.beginArray()
+            while (reader.hasNext()) {
+                list += readLosslessValue(reader)
+            }
+            reader.endArray()
+            list
+        }
+        JsonReader.Token.NUMBER -> {
+            val number = reader.nextString()
+            number.toIntOrNull() ?: number.toLongOrNull() ?: BigDecimal(number)
+        }
+        JsonReader.Token.BOOLEAN -> reader.nextBoolean()
+        JsonReader.Token.NULL -> reader.nextNull<Any>()
+        else -> reader.nextString()
+    }
+
+    /** The numbers of a [readLosslessValue] value as [jsonNumberAdapter] would have read them. */
+    private fun toJsonNumbers(value: Any?): Any? = when (value) {
+        is Int -> value
+        is Number -> value.toString().toFloat()
+        is Map<*, *> -> value.mapValues { toJsonNumbers(it.value) }
+        is List<*> -> value.map { toJsonNumbers(it) }
+        else -> value
+    }
 }
 
 class CloudSpecificToJsonAdapter {
-    val cloudProviderAdapter by lazy {
-        JsonAdapterFactory().createAdapter<CloudProvider>()
-    }
     val stageAdapter by lazy {
         JsonAdapterFactory().createNonCloudSpecificAdapter<SpecificStageConfig>()
     }
     val providerPropertyName = "provider"
 
+    /**
+     * Writes the properties of [stageConfig] with the properties of its [CloudSpecific.provider] flattened in, as
+     * [valueAdapter] writes them. An [UnknownStage] is written as the properties it was read with.
+     */
     @ToJson
-    fun toJson(stageConfig: SpecificStageConfig): Map<String, Any?> {
-        val stageClass = stageConfig.javaClass.kotlin
-        val properties = stageClass.memberProperties
-        val propertiesMap = properties.map { it.name to it.get(stageConfig) }.toMap()
-        return when (stageConfig) {
-            is CloudSpecific -> {
-                val provider = propertiesMap.get(providerPropertyName) as CloudProvider
-                val providerProperties = provider.javaClass.kotlin.memberProperties
-                val providerPropertiesMap = providerProperties.map { it.name to it.get(provider) }.toMap()
-                propertiesMap.minus(providerPropertyName) + providerPropertiesMap
+    fun toJson(writer: JsonWriter, stageConfig: SpecificStageConfig, valueAdapter: JsonAdapter<Any>) {
+        if (stageConfig is UnknownStage) {
+            writer.beginObject()
+            writer.name("type").value(stageConfig.type)
+            stageConfig.properties.forEach { (name, value) ->
+                if (name != "type") {
+                    writer.name(name)
+                    writeLosslessValue(writer, value, valueAdapter)
+                }
             }
-            else -> propertiesMap
+            writer.endObject()
+            return
+        }
+        val stageAccessors = propertyAccessors.get(stageConfig.javaClass)
+        val provider = (stageConfig as? CloudSpecific)?.provider
+        writer.beginObject()
+        if (provider == null) {
+            stageAccessors.forEach { name, value ->
+                writer.name(name)
+                valueAdapter.toJson(writer, value(stageConfig))
+            }
+        } else {
+            // the stage's properties without the provider, overlaid with the provider's, in the order of that merge
+            val providerAccessors = propertyAccessors.get(provider.javaClass)
+            stageAccessors.forEach { name, value ->
+                if (name != providerPropertyName) {
+                    val providerValue = providerAccessors[name]
+                    writer.name(name)
+                    valueAdapter.toJson(writer, if (providerValue != null) providerValue(provider) else value(stageConfig))
+                }
+            }
+            providerAccessors.forEach { name, value ->
+                if (name == providerPropertyName || !stageAccessors.contains(name)) {
+                    writer.name(name)
+                    valueAdapter.toJson(writer, value(provider))
+                }
+            }
+        }
+        writer.endObject()
+    }
+
+    /** Writes numbers as they are, so the [BigDecimal]s of an [UnknownStage] keep all of their digits. */
+    private fun writeLosslessValue(writer: JsonWriter, value: Any?, valueAdapter: JsonAdapter<Any>) {
+        when (value) {
+            is Number -> writer.value(value)
+            is Map<*, *> -> {
+                writer.beginObject()
+                value.forEach { (name, entryValue) ->
+                    writer.name(name.toString())
+                    writeLosslessValue(writer, entryValue, valueAdapter)
+                }
+                writer.endObject()
+            }
+            is List<*> -> {
+                writer.beginArray()
+                value.forEach { writeLosslessValue(writer, it, valueAdapter) }
+                writer.endArray()
+            }
+            else -> valueAdapter.toJson(writer, value)
         }
     }
 
+    /** Gathers the provider properties of stages with a [cloudSpecificStageTypes] type back into their provider. */
     @FromJson
     fun fromJson(stageJson: Map<String, @JvmSuppressWildcards Any>): SpecificStageConfig {
-        val stageMap = try {
-            val cloudProvider = cloudProviderAdapter.fromJsonValue(stageJson)!!
-            val cloudProviderPropertyNames = cloudProvider.javaClass.kotlin.memberProperties.map { it.name }
-            val cloudProviderMap = stageJson.filter { cloudProviderPropertyNames.contains(it.key) }
+        val type = stageJson["type"]
+        val stageMap = if (type is String && type in cloudSpecificStageTypes) {
+            val cloudProviderAccessors = propertyAccessors.get(CloudProvider::class.java)
+            val cloudProviderMap = stageJson.filter { cloudProviderAccessors.contains(it.key) }
             stageJson + (providerPropertyName to cloudProviderMap)
-        } catch (e: JsonDataException) {
+        } else {
             stageJson
         }
         val stage = stageAdapter.fromJsonValue(stageMap)!!
@@ -138,6 +297,27 @@ class CloudSpecificToJsonAdapter {
     }
 }
 
+/** Getters for the member properties of one class, looked up once. */
+private class PropertyAccessors(type: Class<*>) {
+    private val accessors: Map<String, (Any) -> Any?> = type.kotlin.memberProperties.map { property ->
+        val getter = property.javaGetter
+        @Suppress("UNCHECKED_CAST")
+        val value: (Any) -> Any? = getter?.let { method -> { instance: Any -> method.invoke(instance) } }
+                ?: (property as KProperty1<Any, *>)::get
+        property.name to value
+    }.toMap()
+
+    fun contains(name: String) = accessors.containsKey(name)
+
+    operator fun get(name: String): ((Any) -> Any?)? = accessors[name]
+
+    fun forEach(action: (String, (Any) -> Any?) -> Unit) = accessors.forEach { (name, value) -> action(name, value) }
+}
+
+private val propertyAccessors = object : ClassValue<PropertyAccessors>() {
+    override fun computeValue(type: Class<*>) = PropertyAccessors(type)
+}
+
 class ExpressionConditionAdapter {
     @FromJson
     fun fromJson(map: Map<String, @JvmSuppressWildcards Any>): ExpressionCondition {
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.json
+
+import com.squareup.moshi.JsonAdapter
+import com.squareup.moshi.JsonWriter
+import io.pivotal.canal.model.PipelineModel
+import okio.Buffer
+import okio.BufferedSink
+import java.math.BigDecimal
+import java.math.BigInteger
+
+/**
+ * Writes [value] as canonical JSON: object keys sorted by their UTF-16 code units, numbers normalized and no
+ * whitespace or null properties. Values that are equal as JSON always give the same bytes, whatever order their
+ * adapters write properties in.
+ */
+fun <T> JsonAdapter<T>.writeCanonicalJson(sink: BufferedSink, value: T?) {
+    val writer = JsonWriter.of(sink)
+    writeCanonical(writer, toJsonValue(value))
+    writer.flush()
+}
+
+/** @see writeCanonicalJson */
+fun <T> JsonAdapter<T>.toCanonicalJson(value: T?): String {
+    val buffer = Buffer()
+    writeCanonicalJson(buffer, value)
+    return buffer.readUtf8()
+}
+
+/** @see writeCanonicalJson */
+fun PipelineModel.toCanonicalJson(): String = JsonAdapterFactory().createAdapter<PipelineModel>().toCanonicalJson(this)
+
+private fun writeCanonical(writer: JsonWriter, value: Any?) {
+    when (value) {
+        null -> writer.nullValue()
+        is Map<*, *> -> {
+            writer.beginObject()
+            value.entries.map { it.key.toString() to it.value }.sortedBy { it.first }.forEach { (name, fieldValue) ->
+                writer.name(name)
+                writeCanonical(writer, fieldValue)
+            }
+            writer.endObject()
+        }
+        is List<*> -> {
+            writer.beginArray()
+            value.forEach { writeCanonical(writer, it) }
+            writer.endArray()
+        }
+        is String -> writer.value(value)
+        is Boolean -> writer.value(value)
+        is Number -> writer.value(canonicalNumber(value))
+        else -> throw IllegalArgumentException("Cannot write ${value.javaClass.name} as JSON: $value")
+    }
+}
+
+private val plainNumberLimit = BigDecimal.TEN.pow(21)
+
+/**
+ * The shortest decimal for [number] without trailing zeros, written without an exponent below 10^21 when it is a whole
+ * number, so `30`, `30L` and `30.0` all become `30`.
+ */
+internal fun canonicalNumber(number: Number): BigDecimal {
+    val decimal = when (number) {
+        is BigDecimal -> number
+        is BigInteger -> BigDecimal(number)
+        is Double, is Float -> {
+            require(!number.toDouble().isNaN() && !number.toDouble().isInfinite()) {
+                "JSON numbers cannot be $number"
+            }
+            BigDecimal(number.toString())
+        }
+        else -> BigDecimal.valueOf(number.toLong())
+    }.stripTrailingZeros()
+    return if (decimal.scale() < 0 && decimal.abs() < plainNumberLimit) decimal.setScale(0) else decimal
+}
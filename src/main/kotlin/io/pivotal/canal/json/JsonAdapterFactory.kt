@@ -26,6 +26,22 @@ import io.pivotal.canal.model.*
 import io.pivotal.canal.model.cloudfoundry.*
 
 class JsonAdapterFactory {
+
+    companion object {
+        /**
+         * [Moshi] with all of the canal adapters, built once and shared. Moshi is thread safe and caches the adapter it
+         * creates for each type, so adapters from [createAdapter] are only built the first time.
+         */
+        @JvmStatic
+        val moshi: Moshi by lazy { JsonAdapterFactory().jsonAdapterBuilder().build() }
+
+        /** Shared [Moshi] without the [CloudSpecificToJsonAdapter], see [createNonCloudSpecificAdapter]. */
+        @JvmStatic
+        val nonCloudSpecificMoshi: Moshi by lazy {
+            JsonAdapterFactory().jsonAdapterBuilder(Moshi.Builder(), false).build()
+        }
+    }
+
     @JvmOverloads fun jsonAdapterBuilder(builder: Moshi.Builder = Moshi.Builder(),
                                          useCloudSpecificAdapter: Boolean = true): Moshi.Builder {
         builder
@@ -65,22 +81,9 @@ class JsonAdapterFactory {
                         .withSubtype(DirectManifest::class.java, "direct")
                         .withSubtype(ArtifactManifest::class.java, "artifact")
                 )
-                .add(PolymorphicJsonAdapterFactory.of(SpecificStageConfig::class.java, "type")
-                        .withSubtype(DestroyServerGroup::class.java, "destroyServerGroup")
-                        .withSubtype(DeployService::class.java, "deployService")
-                        .withSubtype(DestroyService::class.java, "destroyService")
-                        .withSubtype(DisableServerGroup::class.java, "disableServerGroup")
-                        .withSubtype(EnableServerGroup::class.java, "enableServerGroup")
-                        .withSubtype(ResizeServerGroup::class.java, "resizeServerGroup")
-                        .withSubtype(Wait::class.java, "wait")
-                        .withSubtype(ManualJudgment::class.java, "manualJudgment")
-                        .withSubtype(Webhook::class.java, "webhook")
-                        .withSubtype(Canary::class.java, "kayentaCanary")
-                        .withSubtype(Deploy::class.java, "deploy")
-                        .withSubtype(CheckPreconditions::class.java, "checkPreconditions")
-                        .withSubtype(Jenkins::class.java, "jenkins")
-                        .withSubtype(Rollback::class.java, "rollbackCluster")
-                )
+                .add(stageConfigTypes.entries.fold(
+                        PolymorphicJsonAdapterFactory.of(SpecificStageConfig::class.java, "type")
+                ) { factory, (label, type) -> factory.withSubtype(type, label) })
                 .add(PolymorphicJsonAdapterFactory.of(Variable::class.java, "type")
                         .withSubtype(IntegerVariable::class.java, "int")
                         .withSubtype(StringVariable::class.java, "string")
@@ -110,11 +113,33 @@ class JsonAdapterFactory {
     // without this Adapter that has no CloudSpecificToJsonAdapter, map to stage from Json will loop as we try
     // to pull the flattened cloudprovider out and convert the rest of the map to a stage
     inline fun <reified T>  createNonCloudSpecificAdapter(): JsonAdapter<T> =
-            jsonAdapterBuilder(Moshi.Builder(), false)
-                    .build().adapter(T::class.java)
+            nonCloudSpecificMoshi.adapter(T::class.java)
 
     inline fun <reified T> createAdapter(): JsonAdapter<T> =
-            jsonAdapterBuilder(Moshi.Builder())
-                    .build().adapter(T::class.java)
+            moshi.adapter(T::class.java)
 
 }
+
+/** Every [SpecificStageConfig] class, by the stage `type` it is written with. */
+val stageConfigTypes: Map<String, Class<out SpecificStageConfig>> = linkedMapOf(
+        "destroyServerGroup" to DestroyServerGroup::class.java,
+        "deployService" to DeployService::class.java,
+        "destroyService" to DestroyService::class.java,
+        "disableServerGroup" to DisableServerGroup::class.java,
+        "enableServerGroup" to EnableServerGroup::class.java,
+        "resizeServerGroup" to ResizeServerGroup::class.java,
+        "wait" to Wait::class.java,
+        "manualJudgment" to ManualJudgment::class.java,
+        "webhook" to Webhook::class.java,
+        "pipeline" to RunPipeline::class.java,
+        "kayentaCanary" to Canary::class.java,
+        "deploy" to Deploy::class.java,
+        "checkPreconditions" to CheckPreconditions::class.java,
+        "jenkins" to Jenkins::class.java,
+        "rollbackCluster" to Rollback::class.java
+)
+
+/** Stage types whose stages are [CloudSpecific], and so have their provider flattened into them. */
+val cloudSpecificStageTypes: Set<String> = stageConfigTypes
+        .filterValues { CloudSpecific::class.java.isAssignableFrom(it) }
+        .keys
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.json
+
+import com.squareup.moshi.JsonReader
+import com.squareup.moshi.Moshi
+import io.pivotal.canal.model.PipelineModel
+import io.pivotal.canal.model.UnknownStage
+import okio.Buffer
+import okio.ForwardingSource
+import okio.Source
+import okio.buffer
+import okio.source
+import java.io.Closeable
+import java.nio.file.Files
+import java.nio.file.Path
+
+enum class DumpFormat {
+    /** A JSON array of pipelines, as front50 lists them. */
+    Array,
+    /** One pipeline per line, as [io.pivotal.canal.model.Pipelines.writeNdjsonTo] writes them. */
+    Ndjson,
+    /** An object of pipeline arrays by application, as [io.pivotal.canal.model.Pipelines.toJson] writes them. */
+    ByApplication
+}
+
+data class ImportedPipeline(
+        val application: String?,
+        val pipeline: PipelineModel
+)
+
+/**
+ * @param bytesRead bytes read from the source so far, including what has been buffered ahead
+ * @param unknownStageTypes how many stages of each type were read as [UnknownStage]s
+ */
+data class DumpImportStats(
+        val pipelines: Int,
+        val skippedPipelines: Int,
+        val stages: Int,
+        val unknownStageTypes: Map<String, Int>,
+        val bytesRead: Long,
+        val elapsedNanos: Long
+) {
+    val pipelinesPerSecond: Double get() = if (elapsedNanos == 0L) 0.0 else pipelines * 1e9 / elapsedNanos
+
+    val bytesPerSecond: Double get() = if (elapsedNanos == 0L) 0.0 else bytesRead * 1e9 / elapsedNanos
+}
+
+/**
+ * Reads the pipelines of a front50 dump one at a time, so only the pipeline being read is held in memory. Stages of
+ * types without a model are read as [UnknownStage]s, with their numbers read without loss. Pipelines that cannot be
+ * read are skipped and counted in [stats]. Only stage types are tolerated: a pipeline with a trigger or notification
+ * of an unknown type cannot be read, so it is skipped as a whole. The application of a pipeline is its `application`
+ * property, or its key in a [DumpFormat.ByApplication] dump.
+ */
+class PipelineDumpReader @JvmOverloads constructor(
+        source: Source,
+        private val format: DumpFormat = DumpFormat.Array
+) : AbstractIterator<ImportedPipeline>(), Closeable {
+
+    companion object {
+        @JvmStatic
+        @JvmOverloads
+        fun open(path: Path, format: DumpFormat = DumpFormat.Array): PipelineDumpReader =
+                PipelineDumpReader(Files.newInputStream(path).source(), format)
+    }
+
+    private var bytesRead = 0L
+
+    private val reader = JsonReader.of(object : ForwardingSource(source) {
+        override fun read(sink: Buffer, byteCount: Long): Long {
+            val read = super.read(sink, byteCount)
+            if (read > 0) {
+                bytesRead += read
+            }
+            return read
+        }
+    }.buffer())
+
+    private val startNanos = System.nanoTime()
+
+    private var started = false
+
+    private var application: String? = null
+
+    private var pipelines = 0
+
+    private var skippedPipelines = 0
+
+    private var stages = 0
+
+    private val unknownStageTypes = LinkedHashMap<String, Int>()
+
+    val stats: DumpImportStats
+        get() = DumpImportStats(pipelines, skippedPipelines, stages, LinkedHashMap(unknownStageTypes), bytesRead,
+                System.nanoTime() - startNanos)
+
+    override fun computeNext() {
+        while (hasMorePipelines()) {
+            val pipelineApplication = application ?: peekApplication()
+            val pipeline = try {
+                pipelineAdapter.fromJson(reader.peekJson())
+            } catch (e: RuntimeException) {
+                // JsonDataException, but also what the model adapters throw for values of the wrong shape
+                null
+            }
+            reader.skipValue()
+            if (pipeline == null) {
+                skippedPipelines++
+                continue
+            }
+            pipelines++
+            stages += pipeline.stages.stages.size
+            pipeline.stages.stages.forEach {
+                val stageConfig = it.stageConfig
+                if (stageConfig is UnknownStage) {
+                    unknownStageTypes[stageConfig.type] = (unknownStageTypes[stageConfig.type] ?: 0) + 1
+                }
+            }
+            setNext(ImportedPipeline(pipelineApplication, pipeline))
+            return
+        }
+        done()
+    }
+
+    override fun close() {
+        reader.close()
+    }
+
+    private fun hasMorePipelines(): Boolean {
+        if (!started) {
+            started = true
+            when (format) {
+                DumpFormat.Array -> reader.beginArray()
+                DumpFormat.Ndjson -> reader.isLenient = true
+                DumpFormat.ByApplication -> reader.beginObject()
+            }
+        }
+        return when (format) {
+            DumpFormat.Array -> reader.hasNext()
+            DumpFormat.Ndjson -> reader.peek() != JsonReader.Token.END_DOCUMENT
+            DumpFormat.ByApplication -> {
+                while (application == null || !reader.hasNext()) {
+                    if (application != null) {
+                        reader.endArray()
+                        application = null
+                    }
+                    if (!reader.hasNext()) {
+                        return false
+                    }
+                    application = reader.nextName()
+                    reader.beginArray()
+                }
+                true
+            }
+        }
+    }
+
+    private fun peekApplication(): String? {
+        val peek = reader.peekJson()
+        if (peek.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            return null
+        }
+        peek.beginObject()
+        while (peek.hasNext()) {
+            if (peek.nextName() == "application" && peek.peek() == JsonReader.Token.STRING) {
+                return peek.nextString()
+            }
+            peek.skipValue()
+        }
+        return null
+    }
+}
+
+/** The shared adapters, but reading stages of unknown types as [UnknownStage]s. */
+private val pipelineAdapter by lazy {
+    JsonAdapterFactory().jsonAdapterBuilder(Moshi.Builder().add(StageGraphAdapter(tolerateUnknownStageTypes = true)))
+            .build()
+            .adapter(PipelineModel::class.java)
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model
+
+import java.util.AbstractMap.SimpleImmutableEntry
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Backing array shared by immutable snapshots. Slots below a snapshot's size are never written again, so a snapshot
+ * only needs the array reference it was created with. Only the snapshot ending at the current size may append.
+ */
+internal class AppendLog(initial: Collection<Any?>) {
+    private var elements: Array<Any?> = initial.toTypedArray().copyOf(maxOf(16, initial.size * 2))
+    private var size = initial.size
+
+    @Synchronized
+    fun elements(): Array<Any?> = elements
+
+    @Synchronized
+    fun tryAppend(expectedSize: Int, element: Any?, reserve: (Int) -> Boolean = { true }): Array<Any?>? {
+        if (size != expectedSize || !reserve(size)) {
+            return null
+        }
+        if (size == elements.size) {
+            elements = elements.copyOf(size * 2)
+        }
+        elements[size++] = element
+        return elements
+    }
+}
+
+/**
+ * Immutable list whose [append] shares storage with this list instead of copying it, as long as nothing was appended
+ * to this list before. Appending to an older version copies once and continues from the copy.
+ */
+internal class AppendOnlyList<E> private constructor(
+        private val log: AppendLog,
+        private val elements: Array<Any?>,
+        override val size: Int
+) : AbstractList<E>(), RandomAccess {
+
+    @Suppress("UNCHECKED_CAST")
+    override fun get(index: Int): E {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("Index: $index, Size: $size")
+        }
+        return elements[index] as E
+    }
+
+    fun append(element: E): AppendOnlyList<E> {
+        val shared = log.tryAppend(size, element)
+        return if (shared != null) {
+            AppendOnlyList(log, shared, size + 1)
+        } else {
+            copyOf(this).append(element)
+        }
+    }
+
+    /** Whether appending to either list may continue in the storage of the other. */
+    fun sharesStorageWith(other: AppendOnlyList<*>): Boolean = log === other.log
+
+    companion object {
+        fun <E> of(list: List<E>): AppendOnlyList<E> = list as? AppendOnlyList<E> ?: copyOf(list)
+
+        private fun <E> copyOf(list: List<E>): AppendOnlyList<E> {
+            val log = AppendLog(list)
+            return AppendOnlyList(log, log.elements(), list.size)
+        }
+    }
+}
+
+/**
+ * Immutable insertion-ordered map with the same sharing as [AppendOnlyList]. Adding a key that is already present
+ * copies the map.
+ */
+internal class AppendOnlyMap<K : Any, V : Any> private constructor(
+        private val log: AppendLog,
+        private val positions: ConcurrentHashMap<K, Int>,
+        private val elements: Array<Any?>,
+        override val size: Int
+) : AbstractMap<K, V>() {
+
+    override val entries: Set<Map.Entry<K, V>> = object : AbstractSet<Map.Entry<K, V>>() {
+        override val size: Int get() = this@AppendOnlyMap.size
+
+        override fun iterator(): Iterator<Map.Entry<K, V>> = object : Iterator<Map.Entry<K, V>> {
+            var position = 0
+
+            override fun hasNext(): Boolean = position < size
+
+            override fun next(): Map.Entry<K, V> {
+                if (position >= size) {
+                    throw NoSuchElementException()
+                }
+                return entryAt(position++)
+            }
+        }
+    }
+
+    override fun containsKey(key: K): Boolean = positionOf(key) >= 0
+
+    override fun get(key: K): V? {
+        val position = positionOf(key)
+        return if (position >= 0) entryAt(position).value else null
+    }
+
+    fun withEntry(key: K, value: V): AppendOnlyMap<K, V> {
+        val shared = log.tryAppend(size, SimpleImmutableEntry(key, value)) { positions.putIfAbsent(key, it) == null }
+        if (shared != null) {
+            return AppendOnlyMap(log, positions, shared, size + 1)
+        }
+        val copy = LinkedHashMap<K, V>(this)
+        copy[key] = value
+        return copyOf(copy)
+    }
+
+    /** Whether adding to either map may continue in the storage of the other. */
+    fun sharesStorageWith(other: AppendOnlyMap<*, *>): Boolean = log === other.log
+
+    private fun positionOf(key: K): Int {
+        val position = positions[key] ?: return -1
+        return if (position < size) position else -1
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun entryAt(position: Int): Map.Entry<K, V> = elements[position] as Map.Entry<K, V>
+
+    companion object {
+        fun <K : Any, V : Any> of(map: Map<K, V>): AppendOnlyMap<K, V> = map as? AppendOnlyMap<K, V> ?: copyOf(map)
+
+        private fun <K : Any, V : Any> copyOf(map: Map<K, V>): AppendOnlyMap<K, V> {
+            val log = AppendLog(map.entries.map { SimpleImmutableEntry(it.key, it.value) })
+            val positions = ConcurrentHashMap<K, Int>()
+            map.keys.forEachIndexed { position, key -> positions[key] = position }
+            return AppendOnlyMap(log, positions, log.elements(), map.size)
+        }
+    }
+}
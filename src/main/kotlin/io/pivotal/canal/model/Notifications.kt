@@ -16,8 +16,11 @@
 
 package io.pivotal.canal.model
 
+import com.squareup.moshi.JsonClass
+
 interface Notification : Typed
 
+@JsonClass(generateAdapter = true)
 data class EmailNotification(
         val address: String,
         val level: String
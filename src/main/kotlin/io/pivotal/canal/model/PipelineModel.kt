@@ -17,10 +17,12 @@
 package io.pivotal.canal.model
 
 import com.squareup.moshi.Json
+import com.squareup.moshi.JsonClass
 import io.pivotal.canal.extensions.builder.Triggers
 
 import io.pivotal.canal.extensions.builder.Artifacts.ArtifactReference
 
+@JsonClass(generateAdapter = true)
 data class PipelineModel(
         val name: String,
         val description: String = "",
@@ -45,6 +47,7 @@ data class PipelineStage(
                 inject: Inject? = null) : this(refId.toString(), attrs, common, inject)
 }
 
+@JsonClass(generateAdapter = true)
 data class BaseStage @JvmOverloads constructor (
         val name: String? = null,
         val comments: String? = null,
@@ -59,17 +62,20 @@ data class BaseStage @JvmOverloads constructor (
     val restrictExecutionDuringTimeWindow = restrictedExecutionWindow != null
 }
 
+@JsonClass(generateAdapter = true)
 data class StageExecution(
         val refId: String? = null,
         val requisiteStageRefIds: List<String> = emptyList(),
         val inject: Inject? = null
 )
 
+@JsonClass(generateAdapter = true)
 data class RestrictedExecutionWindow(
         val days: List<Int>,
         val whitelist: List<Whitelist>
 )
 
+@JsonClass(generateAdapter = true)
 data class Whitelist(
         val endHour: Int,
         val endMin: Int,
@@ -78,15 +84,19 @@ data class Whitelist(
 )
 
 sealed class Inject {
+    @JsonClass(generateAdapter = true)
     data class Before(val before: String) : Inject() {
         val type = "before"
     }
+    @JsonClass(generateAdapter = true)
     data class After(val after: String) : Inject() {
         val type = "after"
     }
+    @JsonClass(generateAdapter = true)
     data class First(val first: Boolean = true) : Inject() {
         val type = "first"
     }
+    @JsonClass(generateAdapter = true)
     data class Last(val last: Boolean = true) : Inject() {
         val type = "last"
     }
@@ -95,8 +105,14 @@ sealed class Inject {
 data class Stages (
         val stages: List<PipelineStage> = emptyList(),
         val stageRequirements: Map<String, List<String>> = emptyMap()
-)
+) {
+    val graph: StageGraphIndex by lazy { StageGraphIndex(this) }
+
+    @Transient
+    internal var frontier: StageGraphFrontier? = null
+}
 
+@JsonClass(generateAdapter = true)
 data class Parameter(
         val name: String,
         val required: Boolean = true,
@@ -108,6 +124,7 @@ data class Parameter(
     var hasOptions = options?.isNotEmpty()
 }
 
+@JsonClass(generateAdapter = true)
 data class Value (val value: String)
 
 interface Typed {
@@ -116,6 +133,7 @@ interface Typed {
 
 interface Condition : Typed
 
+@JsonClass(generateAdapter = true)
 data class ExpressionCondition(
         val expression: String
 ) : Condition {
@@ -128,6 +146,7 @@ val falseCondition = ExpressionCondition(false)
 
 interface Precondition : Typed
 
+@JsonClass(generateAdapter = true)
 data class ExpressionPrecondition(
         val context: ExpressionContext
 ) : Precondition {
@@ -137,6 +156,7 @@ data class ExpressionPrecondition(
     override var type = "expression"
 }
 
+@JsonClass(generateAdapter = true)
 data class ExpressionContext(
         val expression: String
 )
@@ -17,12 +17,14 @@
 package io.pivotal.canal.model
 
 import com.squareup.moshi.Json
+import com.squareup.moshi.JsonClass
 
 data class PipelineTemplateInstance(
         val config: PipelineConfiguration,
         val pipeline: PipelineModel? = null
 )
 
+@JsonClass(generateAdapter = true)
 data class PipelineConfiguration(
         val application: String,
         val name: String,
@@ -32,10 +34,12 @@ data class PipelineConfiguration(
         val schema: String = "v2"
 )
 
+@JsonClass(generateAdapter = true)
 data class TemplateSource(
         val source: String
 )
 
+@JsonClass(generateAdapter = true)
 data class PipelineTemplate(
         val id: String,
         val metadata: Metadata,
@@ -57,6 +61,7 @@ interface Variable<out T> {
 }
 
 
+@JsonClass(generateAdapter = true)
 data class IntegerVariable(override val name: String,
                            override val description: String,
                            override val defaultValue: Int? = null,
@@ -67,6 +72,7 @@ data class IntegerVariable(override val name: String,
     override val type = "int"
 }
 
+@JsonClass(generateAdapter = true)
 data class StringVariable(override val name: String,
                            override val description: String,
                            override val defaultValue: String? = null,
@@ -79,6 +85,7 @@ data class StringVariable(override val name: String,
 
 
 
+@JsonClass(generateAdapter = true)
 data class FloatVariable(override val name: String,
                           override val description: String,
                           override val defaultValue: Float? = null,
@@ -89,6 +96,7 @@ data class FloatVariable(override val name: String,
     override val type = "float"
 }
 
+@JsonClass(generateAdapter = true)
 data class BooleanVariable(override val name: String,
                           override val description: String,
                           override val defaultValue: Boolean? = null,
@@ -99,6 +107,7 @@ data class BooleanVariable(override val name: String,
     override val type = "boolean"
 }
 
+@JsonClass(generateAdapter = true)
 data class ListVariable(override val name: String,
                           override val description: String,
                           override val defaultValue: List<Any>? = null,
@@ -109,6 +118,7 @@ data class ListVariable(override val name: String,
     override val type = "list"
 }
 
+@JsonClass(generateAdapter = true)
 data class ObjectVariable(override val name: String,
                           override val description: String,
                           override val defaultValue: Any? = null,
@@ -119,6 +129,7 @@ data class ObjectVariable(override val name: String,
     override val type = "object"
 }
 
+@JsonClass(generateAdapter = true)
 data class Metadata(
         val name: String,
         val description: String,
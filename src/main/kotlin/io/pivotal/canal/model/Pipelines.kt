@@ -16,7 +16,29 @@
 
 package io.pivotal.canal.model
 
+import com.squareup.moshi.JsonWriter
 import io.pivotal.canal.json.JsonAdapterFactory
+import io.pivotal.canal.model.extensions.InvalidStageGraphException
+import io.pivotal.canal.model.extensions.validate
+import okio.Buffer
+import okio.BufferedSink
+import okio.buffer
+import okio.sink
+import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+
+enum class ShardLayout {
+    /** One `<application>.json` file per application, holding the array of its pipelines. */
+    PerApplication,
+    /** One `<application>/<pipeline name>.json` file per pipeline. */
+    PerPipeline
+}
 
 class Pipelines(val pipelinesForApp: Map<String, List<PipelineModel>> = mapOf()) {
 
@@ -29,8 +51,182 @@ class Pipelines(val pipelinesForApp: Map<String, List<PipelineModel>> = mapOf())
         return Pipelines(pipelinesForApp + (application to existingPipelinesForApp + pipelineBuilders))
     }
 
-    fun toJson(): String {
-        return JsonAdapterFactory().createAdapter<Map<String, List<PipelineModel>>>().toJson(pipelinesForApp)
+    /**
+     * @param validate check that every pipeline's stages form a valid DAG first
+     * @throws InvalidStageGraphException for the first pipeline with an invalid stage graph
+     */
+    @JvmOverloads
+    fun toJson(validate: Boolean = false): String {
+        val buffer = Buffer()
+        writeTo(buffer, validate)
+        return buffer.readUtf8()
+    }
+
+    /**
+     * Writes the same JSON as [toJson] to [sink], one pipeline at a time, so only the pipeline being written is held in
+     * memory. The sink is flushed but not closed.
+     *
+     * @param validate check that every pipeline's stages form a valid DAG before anything is written
+     * @throws InvalidStageGraphException for the first pipeline with an invalid stage graph
+     */
+    @JvmOverloads
+    fun writeTo(sink: BufferedSink, validate: Boolean = false) {
+        if (validate) {
+            validateStageGraphs()
+        }
+        val writer = JsonWriter.of(sink)
+        writer.beginObject()
+        pipelinesForApp.forEach { (application, pipelines) ->
+            writer.name(application)
+            writer.beginArray()
+            pipelines.forEach { pipelineAdapter.toJson(writer, it) }
+            writer.endArray()
+        }
+        writer.endObject()
+        writer.flush()
     }
 
+    @JvmOverloads
+    fun writeTo(out: OutputStream, validate: Boolean = false) {
+        writeTo(out.sink().buffer(), validate)
+    }
+
+    /**
+     * Writes every pipeline to [sink] as newline delimited JSON, one pipeline per line with its `application` added.
+     * The sink is flushed but not closed.
+     *
+     * @param validate check that every pipeline's stages form a valid DAG before anything is written
+     * @throws InvalidStageGraphException for the first pipeline with an invalid stage graph
+     */
+    @JvmOverloads
+    fun writeNdjsonTo(sink: BufferedSink, validate: Boolean = false) {
+        if (validate) {
+            validateStageGraphs()
+        }
+        pipelinesForApp.forEach { (application, pipelines) ->
+            pipelines.forEach {
+                val writer = JsonWriter.of(sink)
+                writer.beginObject()
+                writer.name("application").value(application)
+                val token = writer.beginFlatten()
+                pipelineAdapter.toJson(writer, it)
+                writer.endFlatten(token)
+                writer.endObject()
+                // the writer writes straight to the sink, so the newline can follow without flushing the writer
+                sink.writeByte('\n'.toInt())
+            }
+        }
+        sink.flush()
+    }
+
+    @JvmOverloads
+    fun writeNdjsonTo(out: OutputStream, validate: Boolean = false) {
+        writeNdjsonTo(out.sink().buffer(), validate)
+    }
+
+    /**
+     * Writes the pipelines as files under [directory], laid out by [layout], serializing up to [parallelism] files at
+     * once. Names that are not safe as file names have those characters replaced with `_`, and a `-2`, `-3`... suffix
+     * tells apart names that then clash. Every file is written to a temporary file next to it and moved into place, so
+     * a failed run never leaves a partly written file behind. If a file cannot be written, the files not started yet
+     * are not written, and the ones being written are finished before the failure is thrown.
+     *
+     * @param validate check that every pipeline's stages form a valid DAG before anything is written
+     * @return the files written, in the order of [pipelinesForApp]
+     * @throws InvalidStageGraphException for the first pipeline with an invalid stage graph
+     */
+    @JvmOverloads
+    fun writeShards(directory: Path,
+                    layout: ShardLayout = ShardLayout.PerApplication,
+                    parallelism: Int = Runtime.getRuntime().availableProcessors(),
+                    validate: Boolean = false
+    ): List<Path> {
+        require(parallelism > 0) { "Parallelism must be positive: $parallelism" }
+        if (validate) {
+            validateStageGraphs()
+        }
+        val shards = shards(directory, layout)
+        val pool = ForkJoinPool(parallelism)
+        try {
+            shards.map { shard -> pool.submit(Callable { writeAtomically(shard.path, shard.write) }) }
+                    .forEach { it.get() }
+        } catch (e: ExecutionException) {
+            // stop the shards not started yet and let the ones being written finish before reporting the failure
+            pool.shutdownNow()
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)
+            throw e.cause ?: e
+        } finally {
+            pool.shutdown()
+        }
+        return shards.map { it.path }
+    }
+
+    private fun shards(directory: Path, layout: ShardLayout): List<Shard> {
+        val applications = pipelinesForApp.entries.toList()
+        val applicationNames = uniqueFileNames(applications.map { it.key })
+        return applications.withIndex().flatMap { (i, application) ->
+            val pipelines = application.value
+            when (layout) {
+                ShardLayout.PerApplication -> listOf(Shard(directory.resolve("${applicationNames[i]}.json")) { sink ->
+                    val writer = JsonWriter.of(sink)
+                    writer.beginArray()
+                    pipelines.forEach { pipelineAdapter.toJson(writer, it) }
+                    writer.endArray()
+                    writer.flush()
+                })
+                ShardLayout.PerPipeline -> {
+                    val applicationDirectory = directory.resolve(applicationNames[i])
+                    val pipelineNames = uniqueFileNames(pipelines.map { it.name })
+                    pipelines.withIndex().map { (j, pipeline) ->
+                        Shard(applicationDirectory.resolve("${pipelineNames[j]}.json")) { sink ->
+                            pipelineAdapter.toJson(sink, pipeline)
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    fun validateStageGraphs() {
+        pipelinesForApp.forEach { (application, pipelines) ->
+            pipelines.forEach {
+                val validation = it.stages.validate()
+                if (!validation.isValid) {
+                    throw InvalidStageGraphException(validation, "$application/${it.name}")
+                }
+            }
+        }
+    }
+
+}
+
+private val pipelineAdapter by lazy { JsonAdapterFactory().createAdapter<PipelineModel>() }
+
+private class Shard(val path: Path, val write: (BufferedSink) -> Unit)
+
+private val unsafeFileNameCharacters = Regex("[^A-Za-z0-9._ -]")
+
+/** File names for [names], unique even on case insensitive file systems. */
+private fun uniqueFileNames(names: List<String>): List<String> {
+    val used = HashSet<String>()
+    return names.map { name ->
+        val safe = name.replace(unsafeFileNameCharacters, "_").let { if (it.all { c -> c == '.' }) "_$it" else it }
+        var unique = safe
+        var suffix = 2
+        while (!used.add(unique.toLowerCase())) {
+            unique = "$safe-${suffix++}"
+        }
+        unique
+    }
+}
+
+private fun writeAtomically(path: Path, write: (BufferedSink) -> Unit) {
+    Files.createDirectories(path.parent)
+    val temporary = Files.createTempFile(path.parent, ".${path.fileName}", ".tmp")
+    try {
+        Files.newOutputStream(temporary).sink().buffer().use { write(it) }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+        Files.deleteIfExists(temporary)
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model
+
+/**
+ * Int-indexed view of a [Stages] graph. Stage `i` is `stages[i]`; its requisite stages are `predecessors[i]` and
+ * the stages requiring it are `successors[i]`. Requisite refIds that do not name a stage are left out of the
+ * adjacency arrays, and a refId shared by several stages resolves to the first of them.
+ *
+ * Built once per [Stages] instance, see [Stages.graph].
+ */
+class StageGraphIndex(graph: Stages) {
+
+    val stages: List<PipelineStage> = graph.stages
+
+    val size: Int get() = stages.size
+
+    private val indexByRefId: Map<String, Int>
+
+    private val requiredRefIds: Set<String>
+
+    val predecessors: Array<IntArray>
+
+    val successors: Array<IntArray>
+
+    /** Stages without any requisite stage refIds. */
+    val initialStages: List<PipelineStage>
+
+    /** Stages without an entry in the stage requirements. */
+    val firstStages: List<PipelineStage>
+
+    /** Stages that no other stage requires. */
+    val terminalStages: List<PipelineStage>
+
+    init {
+        val n = stages.size
+        val stageRequirements = graph.stageRequirements
+
+        val refIds = HashMap<String, Int>(n * 2)
+        stages.forEachIndexed { i, stage -> refIds.putIfAbsent(stage.refId, i) }
+        indexByRefId = refIds
+
+        val required = HashSet<String>()
+        stageRequirements.values.forEach { required.addAll(it) }
+        requiredRefIds = required
+
+        val successorCounts = IntArray(n)
+        val lastRequiredBy = IntArray(n) { -1 }
+        predecessors = Array(n) { i ->
+            val requisiteStageRefIds = stageRequirements[stages[i].refId].orEmpty()
+            val requisites = IntArray(requisiteStageRefIds.size)
+            var count = 0
+            requisiteStageRefIds.forEach {
+                val p = refIds[it]
+                if (p != null && lastRequiredBy[p] != i) {
+                    lastRequiredBy[p] = i
+                    requisites[count++] = p
+                    successorCounts[p]++
+                }
+            }
+            if (count == requisites.size) requisites else requisites.copyOf(count)
+        }
+
+        val fill = IntArray(n)
+        successors = Array(n) { IntArray(successorCounts[it]) }
+        predecessors.forEachIndexed { i, requisites ->
+            requisites.forEach { p -> successors[p][fill[p]++] = i }
+        }
+
+        initialStages = stages.filter { stageRequirements[it.refId].isNullOrEmpty() }
+        firstStages = stages.filter { !stageRequirements.containsKey(it.refId) }
+        terminalStages = stages.filter { !required.contains(it.refId) }
+    }
+
+    /** Index of the first stage with [refId], or -1 if there is none. */
+    fun indexOf(refId: String): Int = indexByRefId[refId] ?: -1
+
+    operator fun get(index: Int): PipelineStage = stages[index]
+
+    fun isRequired(refId: String): Boolean = requiredRefIds.contains(refId)
+
+    val edgeCount: Int get() = predecessors.sumBy { it.size }
+}
@@ -17,9 +17,11 @@
 package io.pivotal.canal.model
 
 import com.squareup.moshi.Json
+import com.squareup.moshi.JsonClass
 
 interface SpecificStageConfig : Typed
 
+@JsonClass(generateAdapter = true)
 data class CheckPreconditions(
         val preconditions: List<Precondition>
 ) : SpecificStageConfig {
@@ -27,6 +29,7 @@ data class CheckPreconditions(
     override val type = "checkPreconditions"
 }
 
+@JsonClass(generateAdapter = true)
 data class Wait(
         val waitTime: String
 ) : SpecificStageConfig {
@@ -34,6 +37,7 @@ data class Wait(
     override val type = "wait"
 }
 
+@JsonClass(generateAdapter = true)
 data class Jenkins (
         val job: String,
         val master: String,
@@ -43,6 +47,7 @@ data class Jenkins (
     override val type = "jenkins"
 }
 
+@JsonClass(generateAdapter = true)
 data class ManualJudgment @JvmOverloads constructor(
         val instructions: String? = null,
         val judgmentInputs: List<String> = emptyList()
@@ -50,6 +55,7 @@ data class ManualJudgment @JvmOverloads constructor(
     override val type = "manualJudgment"
 }
 
+@JsonClass(generateAdapter = true)
 data class Webhook (
         val method: String,
         val url: String,
@@ -58,6 +64,26 @@ data class Webhook (
     override val type = "webhook"
 }
 
+@JsonClass(generateAdapter = true)
+data class RunPipeline @JvmOverloads constructor(
+        val application: String,
+        val pipeline: String,
+        val pipelineParameters: Map<String, String> = emptyMap(),
+        val waitForCompletion: Boolean = true
+) : SpecificStageConfig {
+    override val type = "pipeline"
+}
+
+/**
+ * A stage of a type without a model here, kept as the rest of the properties it was read with so that it is written
+ * back out unchanged.
+ */
+data class UnknownStage(
+        override val type: String,
+        val properties: Map<String, Any?> = emptyMap()
+) : SpecificStageConfig
+
+@JsonClass(generateAdapter = true)
 data class Canary(
         val analysisType: String,
         val canaryConfig: CanaryConfig
@@ -66,6 +92,7 @@ data class Canary(
     override val type = "kayentaCanary"
 }
 
+@JsonClass(generateAdapter = true)
 data class CanaryConfig(
         val lifetimeDuration: String,
         val scoreThresholds: ScoreThresholds,
@@ -73,6 +100,7 @@ data class CanaryConfig(
         val metricsAccountName: String
 )
 
+@JsonClass(generateAdapter = true)
 data class ScoreThresholds(
         val marginal: String,
         val pass: String
@@ -93,6 +121,7 @@ interface CloudSpecific {
     val provider: CloudProvider
 }
 
+@JsonClass(generateAdapter = true)
 data class CloudProvider constructor(
         val credentials: String,
         val cloudProvider: String
@@ -100,6 +129,7 @@ data class CloudProvider constructor(
     var cloudProviderType = cloudProvider
 }
 
+@JsonClass(generateAdapter = true)
 data class DestroyServerGroup(
         override val provider: CloudProvider,
         override val regions: List<String>,
@@ -115,6 +145,7 @@ enum class TargetServerGroup {
     @Json(name = "oldest_asg_dynamic") Oldest
 }
 
+@JsonClass(generateAdapter = true)
 data class DisableServerGroup(
         override val provider: CloudProvider,
         override val regions: List<String>,
@@ -124,6 +155,7 @@ data class DisableServerGroup(
     override val type = "disableServerGroup"
 }
 
+@JsonClass(generateAdapter = true)
 data class EnableServerGroup(
         override val provider: CloudProvider,
         override val regions: List<String>,
@@ -133,6 +165,7 @@ data class EnableServerGroup(
     override val type = "enableServerGroup"
 }
 
+@JsonClass(generateAdapter = true)
 data class ResizeServerGroup (
         override val provider: CloudProvider,
         override val regions: List<String>,
@@ -147,6 +180,7 @@ data class ResizeServerGroup (
 
 interface ResizeAction
 
+@JsonClass(generateAdapter = true)
 data class ScaleExactResizeAction(
         val instanceCount: Int
 ) : ResizeAction {
@@ -154,6 +188,7 @@ data class ScaleExactResizeAction(
     var capacity =  Capacity(instanceCount)
 }
 
+@JsonClass(generateAdapter = true)
 data class Deploy(
         val clusters: List<Cluster>
 ) : SpecificStageConfig {
@@ -173,6 +208,7 @@ interface Cluster {
     val strategy: DeploymentStrategy
 }
 
+@JsonClass(generateAdapter = true)
 data class Capacity(
         val desired: String,
         val max: String,
@@ -184,6 +220,7 @@ data class Capacity(
     constructor(desired: Int) : this(desired, desired, desired)
 }
 
+@JsonClass(generateAdapter = true)
 data class Rollback(
         override val provider: CloudProvider,
         override val regions: List<String>,
@@ -194,6 +231,7 @@ data class Rollback(
     val moniker = Moniker(cluster, cluster)
 }
 
+@JsonClass(generateAdapter = true)
 data class Moniker(
         val app: String,
         val cluster: String,
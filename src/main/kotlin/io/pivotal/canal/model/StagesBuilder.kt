@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model
+
+/**
+ * Graph construction kernel shared by the stage graph DSLs. Extends a [Stages] graph without copying it: the stages
+ * and stage requirements of [build] results share their storage with the graph the builder started from, so appending
+ * one stage at a time stays linear overall.
+ *
+ * The builder also keeps track of the [terminalStages] as stages and requirements are added, and hands them on to the
+ * graphs it builds, so extending a built graph again does not need to index it. That frontier is shared the same way:
+ * stages that were terminal when they were added stay in an append-only map until most of them are required by later
+ * stages, so starting a builder from a built graph and appending to it costs the same for any width of the graph.
+ */
+class StagesBuilder(from: Stages = Stages()) {
+
+    private var stages = AppendOnlyList.of(from.stages)
+
+    private var stageRequirements = AppendOnlyMap.of(from.stageRequirements)
+
+    private var requiredRefIds: AppendOnlyMap<String, Boolean>
+
+    /** Stages that were terminal when they were added; those whose refIds are in [requiredRefIds] no longer are. */
+    private var terminalCandidates: AppendOnlyMap<String, PipelineStage>
+
+    private var terminalCount: Int
+
+    private var terminalIsTracked = true
+
+    init {
+        val frontier = from.frontier
+        if (frontier != null) {
+            requiredRefIds = frontier.requiredRefIds
+            terminalCandidates = frontier.terminalCandidates
+            terminalCount = frontier.terminalCount
+        } else {
+            val required = LinkedHashMap<String, Boolean>()
+            from.stageRequirements.values.forEach { requisiteStageRefIds -> requisiteStageRefIds.forEach { required[it] = true } }
+            requiredRefIds = AppendOnlyMap.of(required)
+            val terminal = LinkedHashMap<String, PipelineStage>()
+            val terminalStages = from.graph.terminalStages
+            terminalStages.forEach { terminal[it.refId] = it }
+            terminalCandidates = AppendOnlyMap.of(terminal)
+            terminalCount = terminal.size
+            terminalIsTracked = terminal.size == terminalStages.size
+        }
+    }
+
+    val stageCount: Int get() = stages.size
+
+    /** Stages that no other stage requires, in stage order. */
+    val terminalStages: List<PipelineStage>
+        get() = if (terminalIsTracked) {
+            StageGraphFrontier(terminalCandidates, terminalCount, requiredRefIds).terminalStages
+        } else {
+            build().graph.terminalStages
+        }
+
+    fun addStage(stage: PipelineStage, requisiteStageRefIds: List<String> = emptyList()) = apply {
+        stages = stages.append(stage)
+        if (!requiredRefIds.containsKey(stage.refId)) {
+            if (terminalCandidates.containsKey(stage.refId)) {
+                terminalIsTracked = false
+            } else {
+                terminalCandidates = terminalCandidates.withEntry(stage.refId, stage)
+                terminalCount++
+            }
+        }
+        if (requisiteStageRefIds.isNotEmpty()) {
+            requireStages(stage.refId, requisiteStageRefIds)
+        }
+    }
+
+    fun requireStages(refId: String, requisiteStageRefIds: List<String>) = apply {
+        if (stageRequirements.containsKey(refId)) {
+            terminalIsTracked = false
+        }
+        stageRequirements = stageRequirements.withEntry(refId, requisiteStageRefIds)
+        requisiteStageRefIds.forEach {
+            if (!requiredRefIds.containsKey(it)) {
+                requiredRefIds = requiredRefIds.withEntry(it, true)
+                if (terminalCandidates.containsKey(it)) {
+                    terminalCount--
+                }
+            }
+        }
+        if (terminalIsTracked && terminalCandidates.size > 2 * terminalCount + 16) {
+            terminalCandidates = AppendOnlyMap.of(terminalStages.associateByTo(LinkedHashMap()) { it.refId })
+        }
+    }
+
+    /**
+     * Appends the stages of [graph] under the refIds [newRefId] gives them, keeping the requirements between them.
+     * [newRefId] gets each refId of [graph] and the number of the stage it will be. Unless [fanInRefIds] is null, the
+     * [initial] stages of [graph], by default those without requisite stages, are made to require [fanInRefIds].
+     */
+    fun addGraph(graph: Stages,
+                 fanInRefIds: List<String>?,
+                 initial: (PipelineStage) -> Boolean = { graph.stageRequirements[it.refId].isNullOrEmpty() },
+                 newRefId: (refId: String, stageNumber: Int) -> String
+    ) = apply {
+        val refIdRenames = HashMap<String, String>()
+        val initialRefIds = ArrayList<String>()
+        graph.stages.forEach {
+            val renamed = newRefId(it.refId, stageCount + 1)
+            refIdRenames.putIfAbsent(it.refId, renamed)
+            addStage(it.copy(refId = renamed))
+            if (initial(it)) {
+                initialRefIds += renamed
+            }
+        }
+        val renamedRequirements = LinkedHashMap<String, List<String>>(graph.stageRequirements.size * 2)
+        graph.stageRequirements.forEach { (refId, requisiteStageRefIds) ->
+            renamedRequirements[refIdRenames[refId] ?: refId] = requisiteStageRefIds.map { refIdRenames[it] ?: it }
+        }
+        if (fanInRefIds != null) {
+            initialRefIds.forEach { renamedRequirements[it] = fanInRefIds }
+        }
+        renamedRequirements.forEach { (refId, requisiteStageRefIds) -> requireStages(refId, requisiteStageRefIds) }
+    }
+
+    fun build(): Stages {
+        val built = Stages(stages, stageRequirements)
+        if (terminalIsTracked) {
+            built.frontier = StageGraphFrontier(terminalCandidates, terminalCount, requiredRefIds)
+        }
+        return built
+    }
+
+}
+
+/** What a [StagesBuilder] knew about the end of the graph it built. */
+internal class StageGraphFrontier(
+        val terminalCandidates: AppendOnlyMap<String, PipelineStage>,
+        val terminalCount: Int,
+        val requiredRefIds: AppendOnlyMap<String, Boolean>
+) {
+    val terminalStages: List<PipelineStage> by lazy {
+        val terminalStages = ArrayList<PipelineStage>(terminalCount)
+        terminalCandidates.values.forEach {
+            if (!requiredRefIds.containsKey(it.refId)) {
+                terminalStages += it
+            }
+        }
+        terminalStages
+    }
+}
+
+/** Stages that no other stage requires, without indexing graphs built by a [StagesBuilder]. */
+internal val Stages.trackedTerminalStages: List<PipelineStage>
+    get() = frontier?.terminalStages ?: graph.terminalStages
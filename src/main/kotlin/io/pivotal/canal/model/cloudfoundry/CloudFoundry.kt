@@ -16,6 +16,7 @@
 
 package io.pivotal.canal.model.cloudfoundry
 
+import com.squareup.moshi.JsonClass
 import io.pivotal.canal.extensions.builder.*
 import io.pivotal.canal.model.*
 
@@ -63,6 +64,7 @@ class DeployServiceStageBuilder(val defaults: PipelineDefaults,
     fun region(region: String) = apply { this.region = region }
 }
 
+@JsonClass(generateAdapter = true)
 data class DeployService(
         override val provider: CloudProvider,
         override val region: String,
@@ -87,6 +89,7 @@ class DestroyServiceStageBuilder(val defaults: PipelineDefaults,
     fun timeout(timeout: String) = apply { this.timeout = timeout }
 }
 
+@JsonClass(generateAdapter = true)
 data class DestroyService (
         override val provider: CloudProvider,
         override val region: String,
@@ -118,6 +121,7 @@ class CloudFoundryDeployStageBuilder(val defaults: PipelineDefaults,
     fun manifest(manifest: Manifest) = apply { this.manifest = manifest }
 }
 
+@JsonClass(generateAdapter = true)
 data class CloudFoundryCluster constructor(
         override val application: String,
         override val account: String,
@@ -136,6 +140,7 @@ data class CloudFoundryCluster constructor(
 
 interface Manifest : Typed
 
+@JsonClass(generateAdapter = true)
 data class ArtifactManifest(
         val account: String,
         val reference: String
@@ -143,6 +148,7 @@ data class ArtifactManifest(
     override var type = "artifact"
 }
 
+@JsonClass(generateAdapter = true)
 data class DirectManifest @JvmOverloads constructor(
         val services: List<String> = emptyList(),
         val routes: List<String> = emptyList(),
@@ -157,6 +163,7 @@ data class DirectManifest @JvmOverloads constructor(
 
 interface ManifestSource : Typed
 
+@JsonClass(generateAdapter = true)
 data class ManifestSourceArtifact @JvmOverloads constructor(
         val account: String,
         val reference: String,
@@ -165,6 +172,7 @@ data class ManifestSourceArtifact @JvmOverloads constructor(
     override var type: String = "artifact"
 }
 
+@JsonClass(generateAdapter = true)
 data class ManifestSourceUserProvided @JvmOverloads constructor(
         val credentials: String,
         val routeServiceUrl: String,
@@ -175,6 +183,7 @@ data class ManifestSourceUserProvided @JvmOverloads constructor(
     override var type: String = "userProvided"
 }
 
+@JsonClass(generateAdapter = true)
 data class ManifestSourceDirect @JvmOverloads constructor(
         val service: String,
         val serviceName: String,
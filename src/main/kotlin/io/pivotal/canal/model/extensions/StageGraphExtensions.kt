@@ -39,122 +39,49 @@ fun stageGraph(vararg stages: SpecificStageBuilder<*, *>): StageGrapher {
 }
 
 fun stageGraph(stages: List<SpecificStageBuilder<*, *>>): StageGrapher {
-    val pipelineStages = stages.map {
+    val builder = StagesBuilder()
+    stages.forEach {
         val stage = it.build()
         val refId = stage.execution.refId ?: stage.stageConfig.type + "_1"
-        PipelineStage(refId, stage.stageConfig, stage.base, stage.execution.inject)
+        builder.addStage(PipelineStage(refId, stage.stageConfig, stage.base, stage.execution.inject))
     }
-    return StageGrapher(Stages(pipelineStages, emptyMap()))
+    return StageGrapher(builder.build())
 }
 
-val Stages.initialStages: List<PipelineStage> get() {
-    val stagesThatRequireStages = this.stageRequirements.keys.filter { !stageRequirements.get(it)!!.isEmpty() }
-    return this.stages.filter {
-        !(stagesThatRequireStages.contains(it.refId))
-    }
-}
+val Stages.initialStages: List<PipelineStage> get() = graph.initialStages
 
-val Stages.terminalStages: List<PipelineStage> get() {
-    val stagesThatAreRequiredByStages = this.stageRequirements.values.flatten().distinct()
-    return this.stages.filter {
-        !(stagesThatAreRequiredByStages.contains(it.refId))
-    }
-}
+val Stages.terminalStages: List<PipelineStage> get() = trackedTerminalStages
 
 fun Stages.concat(stages: List<Stages>): Stages {
-    var currentStageCount = this.stages.size
-    var newStages: List<PipelineStage> = emptyList()
-    var newStageRequirements: Map<String, List<String>> = mapOf()
+    val builder = StagesBuilder(this)
+    val fanInRefIds = builder.terminalStages.map { it.refId }
     stages.forEach { stageGraph ->
-        val initialStages = stageGraph.initialStages
-        var nextStages: List<PipelineStage> = emptyList()
-        var subStageGraphStageRequirements = stageGraph.stageRequirements
-        stageGraph.stages.forEach {
-            val oldRefId = it.refId
-            val newRefId = "${oldRefId}_${++currentStageCount}"
-            val pStage = it.copy(refId = newRefId)
-            newStages += pStage
-            if (initialStages.contains(it)) {
-                nextStages += pStage
-            }
-            if (stageGraph.stageRequirements.containsKey(newRefId)) {
-                throw IllegalStateException("New RefId '$newRefId' is already used as a key in appending stage graph: $stageGraph")
-            }
-            if (stageGraph.stageRequirements.values.flatten().contains(newRefId)) {
-                throw IllegalStateException("New RefId '$newRefId' is already used as a value in appending stage graph: $stageGraph")
-            }
-            subStageGraphStageRequirements = subStageGraphStageRequirements.entries.associate {
-                val key = if (it.key == oldRefId) newRefId else it.key
-                val value = it.value.map { if (it == oldRefId) newRefId else it}
-                key to value
-            }
-        }
-        newStageRequirements += subStageGraphStageRequirements
-        val requiredStagesForFanOut = nextStages.map {
-            (it.refId to terminalStages.map { it.refId })
-        }.toMap()
-        newStageRequirements += requiredStagesForFanOut
-    }
-    var refIdTransforms: Map<String, String> = mapOf()
-    newStages.forEach {
-        val oldRefId = it.refId
-        val oldRefIdWithoutStageCountSuffix = oldRefId.substring(0, oldRefId.indexOf("_"))
-        val stageCountSuffix = oldRefId.substring(oldRefId.lastIndexOf("_"), oldRefId.length)
-        val newRefId = oldRefIdWithoutStageCountSuffix + stageCountSuffix
-        if (oldRefId != newRefId) {
-            refIdTransforms += (oldRefId to newRefId)
-        }
-    }
-    val normalizedNewStages: List<PipelineStage> = newStages.map {
-        val newRefId = refIdTransforms.get(it.refId)
-        if (newRefId != null) {
-            it.copy(refId = newRefId)
-        } else {
-            it
+        builder.addGraph(stageGraph, fanInRefIds) { refId, stageNumber ->
+            val newRefId = "${refId}_$stageNumber"
+            stageGraph.checkRefIdIsUnused(newRefId, "appending stage graph")
+            newRefId.substring(0, newRefId.indexOf("_")) + newRefId.substring(newRefId.lastIndexOf("_"))
         }
     }
-    val normalizedNewStageRequirements: Map<String, List<String>> = newStageRequirements.entries.associate {
-        val newKey = refIdTransforms.get(it.key)
-        val key = if (newKey != null) newKey else it.key
-        val value = it.value.map {
-            val newValue = refIdTransforms.get(it)
-            if (newValue != null) newValue else it
-        }
-        key to value
-    }
-    val allStages = this.stages + normalizedNewStages
-    val allStageRequirements = this.stageRequirements + normalizedNewStageRequirements
-    return Stages(allStages, allStageRequirements)
+    return builder.build()
 }
 
 fun Stages.union(stages: List<Stages>): Stages {
-    var currentStageCount = this.stages.size
-    var newStages: List<PipelineStage> = emptyList()
-    var newStageRequirements: Map<String, List<String>> = mapOf()
-    stages.forEach {
-        val currentStageGraph = it
-        var subStageGraphStageRequirements = currentStageGraph.stageRequirements
-        it.stages.forEach {
-            val oldRefId = it.refId
-            val oldRefIdWithoutStageCountSuffix = oldRefId.substring(0, oldRefId.lastIndexOf("_"))
-            val newRefId = "${oldRefIdWithoutStageCountSuffix}_${++currentStageCount}"
-            val pStage = it.copy(refId = newRefId)
-            newStages += pStage
-            if (currentStageGraph.stageRequirements.containsKey(newRefId)) {
-                throw IllegalStateException("New RefId '$newRefId' is already used as a key in stage graph: $currentStageGraph")
-            }
-            if (currentStageGraph.stageRequirements.values.flatten().contains(newRefId)) {
-                throw IllegalStateException("New RefId '$newRefId' is already used as a value in stage graph: $currentStageGraph")
-            }
-            subStageGraphStageRequirements = subStageGraphStageRequirements.entries.associate {
-                val key = if (it.key == oldRefId) newRefId else it.key
-                val value = it.value.map { if (it == oldRefId) newRefId else it}
-                key to value
-            }
+    val builder = StagesBuilder(this)
+    stages.forEach { stageGraph ->
+        builder.addGraph(stageGraph, null) { refId, stageNumber ->
+            val newRefId = "${refId.substring(0, refId.lastIndexOf("_"))}_$stageNumber"
+            stageGraph.checkRefIdIsUnused(newRefId, "stage graph")
+            newRefId
         }
-        newStageRequirements += subStageGraphStageRequirements
     }
-    val allStages = this.stages + newStages
-    val allStageRequirements = this.stageRequirements + newStageRequirements
-    return Stages(allStages, allStageRequirements)
+    return builder.build()
+}
+
+internal fun Stages.checkRefIdIsUnused(refId: String, description: String) {
+    if (stageRequirements.containsKey(refId)) {
+        throw IllegalStateException("New RefId '$refId' is already used as a key in $description: $this")
+    }
+    if (graph.isRequired(refId)) {
+        throw IllegalStateException("New RefId '$refId' is already used as a value in $description: $this")
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model.extensions
+
+import io.pivotal.canal.model.*
+import java.util.ArrayDeque
+
+data class StageGraphValidation(
+        val topologicalOrder: List<PipelineStage>,
+        val duplicateRefIds: List<String> = emptyList(),
+        val danglingRefIds: Map<String, List<String>> = emptyMap(),
+        val cyclicRefIds: List<String> = emptyList()
+) {
+    val isValid: Boolean get() = duplicateRefIds.isEmpty() && danglingRefIds.isEmpty() && cyclicRefIds.isEmpty()
+
+    val problems: List<String> get() =
+        duplicateRefIds.map { "RefId '$it' is used by more than one stage" } +
+                danglingRefIds.map { "Stage '${it.key}' requires missing stages ${it.value}" } +
+                (if (cyclicRefIds.isEmpty()) emptyList() else listOf("Stages $cyclicRefIds form a cycle"))
+}
+
+class InvalidStageGraphException(val validation: StageGraphValidation, pipelineName: String? = null) : Exception(
+        "Invalid stage graph${pipelineName?.let { " in pipeline '$it'" } ?: ""}: ${validation.problems.joinToString("; ")}"
+)
+
+/**
+ * Orders the stages with Kahn's algorithm and reports duplicate refIds, requisite refIds that name no stage and stages
+ * on a requirement cycle, in O(stages + requirements).
+ */
+fun Stages.validate(): StageGraphValidation {
+    val graph = this.graph
+    val n = graph.size
+
+    val duplicateRefIds = LinkedHashSet<String>()
+    graph.stages.forEachIndexed { i, stage ->
+        if (graph.indexOf(stage.refId) != i) {
+            duplicateRefIds += stage.refId
+        }
+    }
+
+    val danglingRefIds = LinkedHashMap<String, List<String>>()
+    graph.stages.forEach { stage ->
+        val missing = stageRequirements[stage.refId].orEmpty().filter { graph.indexOf(it) < 0 }
+        if (missing.isNotEmpty()) {
+            danglingRefIds[stage.refId] = missing
+        }
+    }
+
+    val remainingRequisites = IntArray(n) { graph.predecessors[it].size }
+    val ready = ArrayDeque<Int>()
+    (0 until n).filter { remainingRequisites[it] == 0 }.forEach { ready.add(it) }
+    val order = ArrayList<PipelineStage>(n)
+    val ordered = BooleanArray(n)
+    while (ready.isNotEmpty()) {
+        val i = ready.poll()
+        order += graph[i]
+        ordered[i] = true
+        graph.successors[i].forEach {
+            if (--remainingRequisites[it] == 0) {
+                ready.add(it)
+            }
+        }
+    }
+
+    return StageGraphValidation(
+            order,
+            duplicateRefIds.toList(),
+            danglingRefIds,
+            if (order.size == n) emptyList() else cyclicStages(graph, ordered).map { it.refId }
+    )
+}
+
+/**
+ * Stages in dependency order, so that every stage comes after the stages it requires.
+ *
+ * @throws InvalidStageGraphException if the stages do not form a valid DAG
+ */
+fun Stages.topologicalOrder(): List<PipelineStage> {
+    val validation = validate()
+    if (!validation.isValid) {
+        throw InvalidStageGraphException(validation)
+    }
+    return validation.topologicalOrder
+}
+
+/**
+ * Of the stages Kahn's algorithm could not order, drops those that merely follow a cycle, leaving the stages on one.
+ */
+private fun cyclicStages(graph: StageGraphIndex, ordered: BooleanArray): List<PipelineStage> {
+    val n = graph.size
+    val remainingDependents = IntArray(n)
+    (0 until n).filter { !ordered[it] }.forEach { i ->
+        graph.predecessors[i].forEach { if (!ordered[it]) remainingDependents[it]++ }
+    }
+    val trimmed = ordered.copyOf()
+    val leaves = ArrayDeque<Int>()
+    (0 until n).filter { !trimmed[it] && remainingDependents[it] == 0 }.forEach { leaves.add(it) }
+    while (leaves.isNotEmpty()) {
+        val i = leaves.poll()
+        trimmed[i] = true
+        graph.predecessors[i].forEach {
+            if (!trimmed[it] && --remainingDependents[it] == 0) {
+                leaves.add(it)
+            }
+        }
+    }
+    return (0 until n).filter { !trimmed[it] }.map { graph[it] }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.extensions.pipeline
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.time.Duration
+
+class CriticalPathTest {
+
+    val pipeline = pipeline("release") {
+        stages = stages {
+            stage(Wait(60)) then {
+                stage(Jenkins("build", "jenkins1"))
+                stage(Wait(30)) then {
+                    stage(Wait("\${ trigger['parameters']['delay'] }"))
+                }
+            } then {
+                stage(Canary("realTime", CanaryConfig(
+                        "PT1H",
+                        ScoreThresholds(75, 95),
+                        "storage1",
+                        "metrics1"
+                )))
+            }
+        }
+    }
+
+    val durations = StageDurations(Duration.ofSeconds(10))
+            .withDuration(Jenkins::class.java, Duration.ofMinutes(5))
+
+    @Test
+    fun `longest chain of stages determines the pipeline duration`() {
+        val analysis = pipeline.criticalPath(durations)
+
+        assertThat(analysis.duration).isEqualTo(Duration.ofSeconds(60 + 300 + 3600))
+        assertThat(analysis.criticalPath.map { it.refId }).containsExactly("wait1", "jenkins2", "kayentaCanary5")
+        assertThat(analysis.criticalStages.map { it.refId }).containsExactly("wait1", "jenkins2", "kayentaCanary5")
+    }
+
+    @Test
+    fun `stages off the critical path have slack`() {
+        val analysis = pipeline.criticalPath(durations)
+
+        assertThat(analysis.timing("wait3")!!.earliestStart).isEqualTo(Duration.ofSeconds(60))
+        assertThat(analysis.timing("wait3")!!.slack).isEqualTo(Duration.ofSeconds(300 - 30 - 10))
+        assertThat(analysis.timing("wait4")!!.duration).isEqualTo(Duration.ofSeconds(10))
+        assertThat(analysis.timing("jenkins2")!!.slack).isEqualTo(Duration.ZERO)
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class DominatorsTest {
+
+    val stages = Stages(
+            listOf(
+                    PipelineStage("manualJudgment1", ManualJudgment()),
+                    PipelineStage("wait2", Wait(2)),
+                    PipelineStage("wait3", Wait(3)),
+                    PipelineStage("checkPreconditions4", CheckPreconditions()),
+                    PipelineStage("wait5", Wait(5)),
+                    PipelineStage("jenkins6", Jenkins("build", "jenkins1")),
+                    PipelineStage("wait7", Wait(7))
+            ),
+            mapOf(
+                    "wait2" to listOf("manualJudgment1"),
+                    "wait3" to listOf("manualJudgment1"),
+                    "checkPreconditions4" to listOf("wait2", "wait3"),
+                    "wait5" to listOf("checkPreconditions4"),
+                    "wait7" to listOf("wait5", "jenkins6")
+            )
+    )
+
+    @Test
+    fun `gating stages dominate everything after them`() {
+        val dominators = stages.dominators()
+
+        assertThat(dominators.immediateDominator("checkPreconditions4")!!.refId).isEqualTo("manualJudgment1")
+        assertThat(dominators.immediateDominator("wait5")!!.refId).isEqualTo("checkPreconditions4")
+        assertThat(dominators.immediateDominator("wait7")).isNull()
+        assertThat(dominators.immediateDominator("manualJudgment1")).isNull()
+        assertThat(dominators.dominated("manualJudgment1").map { it.refId })
+                .containsExactly("wait2", "wait3", "checkPreconditions4", "wait5")
+        assertThat(dominators.dominatedCount("manualJudgment1")).isEqualTo(4)
+        assertThat(dominators.dominates("wait2", "checkPreconditions4")).isFalse()
+        assertThat(dominators.dominates("wait5", "wait5")).isFalse()
+    }
+
+    @Test
+    fun `post dominators are the stages every path to the end goes through`() {
+        val postDominators = stages.postDominators()
+
+        assertThat(postDominators.immediateDominator("manualJudgment1")!!.refId).isEqualTo("checkPreconditions4")
+        assertThat(postDominators.immediateDominator("jenkins6")!!.refId).isEqualTo("wait7")
+        assertThat(postDominators.dominated("wait7").map { it.refId })
+                .containsExactly("manualJudgment1", "wait2", "wait3", "checkPreconditions4", "wait5", "jenkins6")
+        assertThat(postDominators.dominatedCount("checkPreconditions4")).isEqualTo(3)
+    }
+
+}
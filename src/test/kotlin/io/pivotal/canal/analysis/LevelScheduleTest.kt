@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.fluentstages.addStage
+import io.pivotal.canal.extensions.fluentstages.andThen
+import io.pivotal.canal.extensions.fluentstages.parallelStages
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.cloudfoundry.DestroyService
+import io.pivotal.canal.model.cloudfoundry.cloudFoundryCloudProvider
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class LevelScheduleTest {
+
+    val stages = Stages()
+            .addStage(ManualJudgment())
+            .parallelStages((1..3).map {
+                DestroyService(cloudFoundryCloudProvider(if (it < 3) "creds1" else "creds2"), "dev > dev", "service$it")
+            })
+            .andThen(Wait(1))
+
+    @Test
+    fun `stages are grouped by their earliest start level`() {
+        val schedule = stages.levelSchedule()
+
+        assertThat(schedule.levels.map { level -> level.map { it.refId } }).containsExactly(
+                listOf("manualJudgment1"),
+                listOf("destroyService2", "destroyService3", "destroyService4"),
+                listOf("wait5")
+        )
+        assertThat(schedule.widths).containsExactly(1, 3, 1)
+        assertThat(schedule.maxWidth).isEqualTo(3)
+        assertThat(schedule.level("wait5")).isEqualTo(2)
+    }
+
+    @Test
+    fun `levels with too many concurrent cloud stages per account are flagged`() {
+        val schedule = stages.levelSchedule()
+
+        val violations = schedule.cloudConcurrencyViolations(1)
+
+        assertThat(violations).hasSize(1)
+        assertThat(violations[0].level).isEqualTo(1)
+        assertThat(violations[0].credentials).isEqualTo("creds1")
+        assertThat(violations[0].stages.map { it.refId }).containsExactly("destroyService2", "destroyService3")
+        assertThat(schedule.cloudConcurrencyViolations(2)).isEmpty()
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.pipeline
+import io.pivotal.canal.json.JsonAdapterFactory
+import io.pivotal.canal.model.*
+import net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.junit.jupiter.api.Test
+
+class PipelinePartitionTest {
+
+    val pipeline = pipeline("release") {
+        parameters = listOf(Parameter("version"))
+        stages = Stages(
+                listOf(
+                        PipelineStage("wait1", Wait(1)),
+                        PipelineStage("wait2", Wait(2)),
+                        PipelineStage("manualJudgment3", ManualJudgment()),
+                        PipelineStage("wait4", Wait(4)),
+                        PipelineStage("wait5", Wait(5)),
+                        PipelineStage("wait6", Wait(6))
+                ),
+                mapOf(
+                        "wait2" to listOf("wait1"),
+                        "manualJudgment3" to listOf("wait2"),
+                        "wait4" to listOf("manualJudgment3"),
+                        "wait5" to listOf("manualJudgment3"),
+                        "wait6" to listOf("wait4", "wait5")
+                )
+        )
+    }
+
+    @Test
+    fun `pipelines within the limits are not split`() {
+        val partition = pipeline.partition("app1", PipelineLimits(maxStages = 6))
+
+        assertThat(partition.isSplit).isFalse()
+        assertThat(partition.parent).isEqualTo(pipeline)
+    }
+
+    @Test
+    fun `stages are cut where the fewest requirements cross`() {
+        val partition = pipeline.partition("app1", PipelineLimits(maxStages = 4))
+
+        assertThat(partition.children.map { it.name }).containsExactly("release - part 1", "release - part 2")
+        assertThat(partition.children[0].stages).isEqualTo(Stages(
+                listOf(PipelineStage("wait1", Wait(1)), PipelineStage("wait2", Wait(2))),
+                mapOf("wait2" to listOf("wait1"))
+        ))
+        assertThat(partition.children[1].stages.stages.map { it.refId })
+                .containsExactly("manualJudgment3", "wait4", "wait5", "wait6")
+        assertThat(partition.children[1].stages.stageRequirements).doesNotContainKey("manualJudgment3")
+        assertThat(partition.children[1].parameters).isEqualTo(pipeline.parameters)
+    }
+
+    @Test
+    fun `parent pipeline runs the child pipelines in order`() {
+        val partition = pipeline.partition("app1", PipelineLimits(maxStages = 4))
+
+        val json = JsonAdapterFactory().createAdapter<PipelineModel>().toJson(partition.parent)
+
+        assertThatJson(json).node("stages").isEqualTo("""
+            [
+                {
+                    "refId": "pipeline1",
+                    "requisiteStageRefIds": [],
+                    "type": "pipeline",
+                    "application": "app1",
+                    "pipeline": "release - part 1",
+                    "pipelineParameters": {"version": "${'$'}{ parameters['version'] }"},
+                    "waitForCompletion": true,
+                    "name": "Run release - part 1"
+                },
+                {
+                    "refId": "pipeline2",
+                    "requisiteStageRefIds": ["pipeline1"],
+                    "type": "pipeline",
+                    "application": "app1",
+                    "pipeline": "release - part 2",
+                    "pipelineParameters": {"version": "${'$'}{ parameters['version'] }"},
+                    "waitForCompletion": true,
+                    "name": "Run release - part 2"
+                }
+            ]
+        """.trimIndent())
+    }
+
+    @Test
+    fun `children only run after the children they depend on`() {
+        val oneStagePerChild = BaseStage(comments = "c".repeat(1000))
+        val branches = pipeline.copy(stages = Stages(
+                listOf(
+                        PipelineStage("manualJudgment1", ManualJudgment(), oneStagePerChild),
+                        PipelineStage("wait2", Wait(2), oneStagePerChild),
+                        PipelineStage("wait3", Wait(3), oneStagePerChild),
+                        PipelineStage("wait4", Wait(4), oneStagePerChild)
+                ),
+                mapOf(
+                        "wait2" to listOf("manualJudgment1"),
+                        "wait3" to listOf("manualJudgment1"),
+                        "wait4" to listOf("wait2", "wait3")
+                )
+        ))
+
+        val partition = branches.partition("app1", PipelineLimits(maxBytes = 2000))
+
+        assertThat(partition.children.map { child -> child.stages.stages.map { it.refId } })
+                .containsExactly(listOf("manualJudgment1"), listOf("wait2"), listOf("wait3"), listOf("wait4"))
+        assertThat(partition.parent.stages.stageRequirements).isEqualTo(mapOf(
+                "pipeline2" to listOf("pipeline1"),
+                "pipeline3" to listOf("pipeline1"),
+                "pipeline4" to listOf("pipeline2", "pipeline3")
+        ))
+    }
+
+    @Test
+    fun `children leave room for the pipeline around their stages`() {
+        val limit = 3600
+        val large = pipeline.copy(
+                description = "d".repeat(1000),
+                stages = Stages(
+                        pipeline.stages.stages.map { it.copy(common = BaseStage(comments = "c".repeat(1000))) },
+                        pipeline.stages.stageRequirements
+                )
+        )
+
+        val partition = large.partition("app1", PipelineLimits(maxBytes = limit.toLong()))
+
+        val adapter = JsonAdapterFactory().createAdapter<PipelineModel>()
+        assertThat(partition.isSplit).isTrue()
+        assertThat(partition.children.flatMap { child -> child.stages.stages.map { it.refId } })
+                .containsExactlyInAnyOrderElementsOf(large.stages.stages.map { it.refId })
+        (partition.children + partition.parent).forEach {
+            assertThat(adapter.toJson(it).toByteArray().size).isLessThanOrEqualTo(limit)
+        }
+    }
+
+    @Test
+    fun `only the parent sends notifications`() {
+        val notifying = pipeline.copy(notifications = listOf(EmailNotification("team@example.com", "pipeline")))
+
+        val partition = notifying.partition("app1", PipelineLimits(maxStages = 4))
+
+        assertThat(partition.parent.notifications).isEqualTo(notifying.notifications)
+        assertThat(partition.children.flatMap { it.notifications }).isEmpty()
+    }
+
+    @Test
+    fun `parents over the limits are not returned`() {
+        val thrown = catchThrowable { pipeline.partition("app1", PipelineLimits(maxStages = 1)) }
+
+        assertThat(thrown)
+                .isInstanceOf(IllegalArgumentException::class.java)
+                .hasMessageStartingWith("The 6 stages running the parts of 'release' are over")
+    }
+
+    @Test
+    fun `limits must be positive`() {
+        assertThat(catchThrowable { PipelineLimits(maxStages = 0) })
+                .isInstanceOf(IllegalArgumentException::class.java)
+                .hasMessage("maxStages must be positive, but was 0")
+        assertThat(catchThrowable { PipelineLimits(maxBytes = 0) })
+                .isInstanceOf(IllegalArgumentException::class.java)
+                .hasMessage("maxBytes must be positive, but was 0")
+    }
+
+}
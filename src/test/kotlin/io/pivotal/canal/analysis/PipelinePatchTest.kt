@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.nestedstages.StageDefInvoker
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.json.JsonAdapterFactory
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class PipelinePatchTest {
+
+    @Suppress("UNCHECKED_CAST")
+    fun published(pipeline: PipelineModel, vararg front50Properties: Pair<String, Any>): String {
+        val json = JsonAdapterFactory().createAdapter<PipelineModel>().toJsonValue(pipeline) as Map<String, Any?>
+        return JsonAdapterFactory().createAdapter<Any>().toJson(json + front50Properties)
+    }
+
+    fun PipelinePatch.paths() = operations.map { "${it.javaClass.simpleName} ${it.path}" }
+
+    @Test
+    fun `unchanged pipelines need no patch`() {
+        val pipeline = PipelineModel("release", stages = stages {
+            stage(Wait(10)) then {
+                stage(ManualJudgment("Ship it?"))
+            }
+        })
+
+        val patch = pipeline.patchFrom(published(pipeline, "id" to "1234", "updateTs" to "1555555555555"))
+
+        assertThat(patch.isEmpty).isTrue()
+        assertThat(patch.toJson()).isEqualTo("[]")
+    }
+
+    @Test
+    fun `renumbered stages are patched in place`() {
+        val before = PipelineModel("release", stages = stages {
+            stage(Wait(10)) then {
+                stage(ManualJudgment())
+            }
+        })
+        val after = before.copy(description = "Checked", stages = stages {
+            stage(CheckPreconditions(ExpressionPrecondition(true))) then {
+                stage(Wait(10))
+            } then {
+                stage(ManualJudgment())
+            }
+        })
+
+        val patch = after.patchFrom(published(before))
+
+        assertThat(patch.paths()).containsExactly(
+                "Replace /description",
+                "Add /stages/0",
+                "Replace /stages/1/refId",
+                "Add /stages/1/requisiteStageRefIds/0",
+                "Replace /stages/2/refId",
+                "Replace /stages/2/requisiteStageRefIds/0"
+        )
+        assertThat(patch.operations[2]).isEqualTo(JsonPatchOperation.Replace("/stages/1/refId", "wait2"))
+        assertThat(patch.toJson()).startsWith("""[{"op":"replace","path":"/description","value":"Checked"},""")
+    }
+
+    @Test
+    fun `stages that changed places are moved`() {
+        val before = PipelineModel("release", stages = stages {
+            stage(Wait(1))
+            stage(Wait(2))
+        })
+        val after = before.copy(stages = Stages(listOf(
+                PipelineStage("wait1", Wait(2), BaseStage()),
+                PipelineStage("wait2", Wait(1), BaseStage())
+        )))
+
+        val patch = after.patchFrom(published(before))
+
+        assertThat(patch.operations).containsExactly(
+                JsonPatchOperation.Move("/stages/1", "/stages/0"),
+                JsonPatchOperation.Replace("/stages/0/refId", "wait1"),
+                JsonPatchOperation.Replace("/stages/1/refId", "wait2")
+        )
+    }
+
+    @Test
+    fun `reversed stages are moved one at a time`() {
+        val stageCount = 5000
+        val before = PipelineModel("release", stages = stages {
+            (1..stageCount).forEach { stage(Wait(it.toLong())) }
+        })
+        val after = before.copy(stages = Stages(before.stages.stages.reversed()))
+
+        val patch = after.patchFrom(published(before))
+
+        assertThat(patch.operations).isEqualTo((0 until stageCount - 1).map {
+            JsonPatchOperation.Move("/stages/${stageCount - 1}", "/stages/$it")
+        })
+    }
+
+    @Test
+    fun `unreadable published stages are compared by position`() {
+        val pipeline = PipelineModel("release", stages = Stages(listOf(PipelineStage("wait1", Wait(10), BaseStage()))))
+        val publishedJson = published(pipeline).replace("\"wait\"", "\"someFutureStage\"")
+
+        val patch = pipeline.patchFrom(publishedJson)
+
+        assertThat(patch.operations).containsExactly(JsonPatchOperation.Replace("/stages/0/type", "wait"))
+    }
+
+    @Test
+    fun `published stages the model adapters fail on are compared by position`() {
+        val pipeline = PipelineModel("release", stages = Stages(listOf(
+                PipelineStage("checkPreconditions1", CheckPreconditions(ExpressionPrecondition(true)), BaseStage())
+        )))
+        val publishedJson = published(pipeline).replace("{\"expression\":\"true\"}", "\"true\"")
+
+        val patch = pipeline.patchFrom(publishedJson)
+
+        assertThat(patch.operations).containsExactly(
+                JsonPatchOperation.Replace("/stages/0/preconditions/0/context", mapOf("expression" to "true"))
+        )
+    }
+
+    @Test
+    fun `long renumbered pipelines get a patch per changed field`() {
+        val stageCount = 2000
+        val before = PipelineModel("release", stages = stages {
+            var last: StageDefInvoker = stage(Wait(1))
+            (2..stageCount).forEach { last = last then { stage(Wait(it.toLong())) } }
+        })
+        val after = before.copy(stages = stages {
+            var last: StageDefInvoker = stage(ManualJudgment())
+            (1..stageCount).forEach { last = last then { stage(Wait(it.toLong())) } }
+        })
+
+        val patch = after.patchFrom(published(before))
+
+        assertThat(patch.operations).hasSize(2 * stageCount + 1)
+        assertThat(patch.operations.filter { it.path == "/stages" || it is JsonPatchOperation.Remove }).isEmpty()
+    }
+
+}
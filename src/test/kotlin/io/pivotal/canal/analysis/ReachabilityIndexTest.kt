@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.fluentstages.andThen
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.junit.jupiter.api.Test
+
+class ReachabilityIndexTest {
+
+    val stages = stages {
+        stage(ManualJudgment()) then {
+            stage(Wait(1))
+            stage(Wait(2))
+        } then {
+            stage(Jenkins("build", "jenkins1"))
+        }
+    }
+
+    @Test
+    fun `precedence is answered from the transitive closure`() {
+        val index = ReachabilityIndex(stages)
+
+        assertThat(index.precedes("manualJudgment1", "jenkins4")).isTrue()
+        assertThat(index.precedes("wait2", "jenkins4")).isTrue()
+        assertThat(index.precedes("wait2", "wait3")).isFalse()
+        assertThat(index.precedes("jenkins4", "manualJudgment1")).isFalse()
+        assertThat(index.precedes("missing", "jenkins4")).isFalse()
+        assertThat(index.ancestors("jenkins4").map { it.refId }).containsExactly("manualJudgment1", "wait2", "wait3")
+        assertThat(index.descendants("wait3").map { it.refId }).containsExactly("jenkins4")
+    }
+
+    @Test
+    fun `stages appended through the DSL extend the index`() {
+        val index = ReachabilityIndex(stages)
+        val extended = stages.andThen(Wait(5))
+
+        index.extendTo(extended)
+
+        assertThat(index.size).isEqualTo(5)
+        assertThat(index.precedes("manualJudgment1", "wait5")).isTrue()
+        assertThat(index.descendants("wait2").map { it.refId }).containsExactly("jenkins4", "wait5")
+    }
+
+    @Test
+    fun `graphs that do not extend the indexed stages are indexed from scratch`() {
+        val index = ReachabilityIndex(stages)
+        val other = Stages(
+                listOf(PipelineStage("wait1", Wait(1)), PipelineStage("wait2", Wait(2))),
+                mapOf("wait2" to listOf("wait1"))
+        )
+
+        index.extendTo(other)
+
+        assertThat(index.size).isEqualTo(2)
+        assertThat(index.precedes("wait1", "wait2")).isTrue()
+        assertThat(index.precedes("manualJudgment1", "jenkins4")).isFalse()
+    }
+
+    @Test
+    fun `requisite stages may be appended after the stages requiring them`() {
+        val index = ReachabilityIndex()
+                .append(PipelineStage("wait2", Wait(2)), listOf("wait1"))
+                .append(PipelineStage("wait3", Wait(3)), listOf("wait2"))
+                .append(PipelineStage("wait1", Wait(1)))
+
+        assertThat(index.precedes("wait1", "wait3")).isTrue()
+        assertThat(index.ancestors("wait3").map { it.refId }).containsExactly("wait2", "wait1")
+    }
+
+    @Test
+    fun `appending a stage that closes a cycle is rejected`() {
+        val index = ReachabilityIndex().append(PipelineStage("wait2", Wait(2)), listOf("wait1"))
+
+        val thrown = catchThrowable { index.append(PipelineStage("wait1", Wait(1)), listOf("wait2")) }
+
+        assertThat(thrown).isInstanceOf(IllegalStateException::class.java)
+                .hasMessage("Stage 'wait1' cannot require 'wait2' without forming a cycle")
+        assertThat(index.size).isEqualTo(1)
+    }
+
+}
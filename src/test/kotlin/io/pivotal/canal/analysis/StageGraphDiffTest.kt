@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class StageGraphDiffTest {
+
+    val before = stages {
+        stage(ManualJudgment()) then {
+            stage(Wait(1))
+            stage(Wait(2))
+        } then {
+            stage(Jenkins("build", "jenkins1"))
+        }
+    }
+
+    @Test
+    fun `renumbered refIds and reordered stages make no difference`() {
+        val after = Stages(
+                listOf(
+                        PipelineStage("jenkins_9", Jenkins("build", "jenkins1")),
+                        PipelineStage("wait_7", Wait(2)),
+                        PipelineStage("wait_5", Wait(1)),
+                        PipelineStage("manualJudgment_3", ManualJudgment())
+                ),
+                mapOf(
+                        "jenkins_9" to listOf("wait_7", "wait_5"),
+                        "wait_5" to listOf("manualJudgment_3"),
+                        "wait_7" to listOf("manualJudgment_3")
+                )
+        )
+
+        val diff = before.diff(after)
+
+        assertThat(diff.isEmpty).isTrue()
+        assertThat(diff.matchedRefIds).containsEntry("wait2", "wait_5").containsEntry("jenkins4", "jenkins_9")
+    }
+
+    @Test
+    fun `a missing base stage only differs from a named one`() {
+        val withoutBaseStages = Stages(before.stages.map { it.copy(common = null) }, before.stageRequirements)
+        val named = Stages(
+                withoutBaseStages.stages.map { if (it.refId == "wait2") it.copy(common = BaseStage("Wait")) else it },
+                before.stageRequirements
+        )
+
+        assertThat(withoutBaseStages.diff(before).isEmpty).isTrue()
+        assertThat(withoutBaseStages.diff(named).modified.map { it.before.refId }).containsExactly("wait2")
+    }
+
+    @Test
+    fun `added, removed, modified and rewired stages are reported`() {
+        val after = stages {
+            stage(ManualJudgment()) then {
+                stage(Wait(1))
+            } then {
+                stage(Jenkins("build", "jenkins2"))
+            } then {
+                stage(Webhook("POST", "https://example.com/hook"))
+            }
+        }
+
+        val diff = before.diff(after)
+
+        assertThat(diff.added.map { it.refId }).containsExactly("webhook4")
+        assertThat(diff.removed.map { it.refId }).containsExactly("wait3")
+        assertThat(diff.modified.map { it.before.refId to it.after.refId }).containsExactly("jenkins4" to "jenkins3")
+        assertThat(diff.rewired.map { it.before.refId to it.after.refId }).containsExactly("jenkins4" to "jenkins3")
+    }
+
+}
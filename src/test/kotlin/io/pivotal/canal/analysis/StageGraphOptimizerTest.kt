@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.extensions.pipeline
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class StageGraphOptimizerTest {
+
+    @Test
+    fun `consecutive literal waits are fused`() {
+        val stages = stages {
+            stage(Wait(10)) then {
+                stage(Wait(20), name = "Cool down")
+            } then {
+                stage(Wait("\${ trigger['parameters']['delay'] }"))
+            } then {
+                stage(ManualJudgment())
+            }
+        }
+
+        val optimized = stages.optimize()
+
+        assertThat(optimized.stages).isEqualTo(Stages(
+                listOf(
+                        PipelineStage("wait1", Wait(30), BaseStage()),
+                        PipelineStage("wait3", Wait("\${ trigger['parameters']['delay'] }"), BaseStage()),
+                        PipelineStage("manualJudgment4", ManualJudgment(), BaseStage())
+                ),
+                mapOf(
+                        "wait3" to listOf("wait1"),
+                        "manualJudgment4" to listOf("wait3")
+                )
+        ))
+        assertThat(optimized.optimizations).containsExactly(StageOptimization.WaitsFused(
+                stages.stages.subList(0, 2),
+                PipelineStage("wait1", Wait(30), BaseStage())
+        ))
+    }
+
+    @Test
+    fun `disabled stages and passing preconditions are removed and their requirements passed on`() {
+        val stages = stages {
+            stage(Jenkins("build", "jenkins1")) then {
+                stage(Webhook("POST", "https://example.com"), stageEnabled = falseCondition)
+                stage(CheckPreconditions(ExpressionPrecondition(true)))
+            } then {
+                stage(ManualJudgment())
+            }
+        }
+
+        val optimized = stages.optimize()
+
+        assertThat(optimized.stages.stages.map { it.refId }).containsExactly("jenkins1", "manualJudgment4")
+        assertThat(optimized.stages.stageRequirements).isEqualTo(mapOf("manualJudgment4" to listOf("jenkins1")))
+        assertThat(optimized.optimizations).containsExactly(
+                StageOptimization.DisabledStageRemoved(stages.stages[1]),
+                StageOptimization.PassingPreconditionsRemoved(stages.stages[2])
+        )
+    }
+
+    @Test
+    fun `long chains of removed stages are passed over`() {
+        val chainLength = 100_000
+        val disabled = BaseStage(stageEnabled = ExpressionCondition("false"))
+        val stages = Stages(
+                listOf(PipelineStage("manualJudgment0", ManualJudgment())) +
+                        (1..chainLength).map { PipelineStage("webhook$it", Webhook("POST", "https://example.com"), disabled) } +
+                        PipelineStage("manualJudgment${chainLength + 1}", ManualJudgment()),
+                (1..chainLength + 1).map {
+                    val requisiteStageRefId = if (it == 1) "manualJudgment0" else "webhook${it - 1}"
+                    (if (it == chainLength + 1) "manualJudgment$it" else "webhook$it") to listOf(requisiteStageRefId)
+                }.toMap()
+        )
+
+        val optimized = stages.optimize()
+
+        assertThat(optimized.stages.stages.map { it.refId })
+                .containsExactly("manualJudgment0", "manualJudgment${chainLength + 1}")
+        assertThat(optimized.stages.stageRequirements)
+                .isEqualTo(mapOf("manualJudgment${chainLength + 1}" to listOf("manualJudgment0")))
+        assertThat(optimized.optimizations).hasSize(chainLength)
+    }
+
+    @Test
+    fun `pipelines without anything to optimize are unchanged`() {
+        val pipeline = pipeline("release") {
+            stages = stages {
+                stage(Wait(10), stageEnabled = ExpressionCondition("\${ parameters['wait'] }")) then {
+                    stage(CheckPreconditions(ExpressionPrecondition("\${ parameters['ready'] }")))
+                }
+            }
+        }
+
+        val optimized = pipeline.optimize()
+
+        assertThat(optimized.optimizations).isEmpty()
+        assertThat(optimized.pipeline).isSameAs(pipeline)
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.extensions.pipeline
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class StageHashesTest {
+
+    val stages = stages {
+        stage(ManualJudgment()) then {
+            stage(Wait(1))
+            stage(Wait(2))
+        } then {
+            stage(Jenkins("build", "jenkins1"))
+        }
+    }
+
+    val sameStagesRenamedAndReordered = Stages(
+            listOf(
+                    PipelineStage("jenkins_9", Jenkins("build", "jenkins1")),
+                    PipelineStage("wait_7", Wait(2)),
+                    PipelineStage("wait_5", Wait(1)),
+                    PipelineStage("manualJudgment_3", ManualJudgment())
+            ),
+            mapOf(
+                    "jenkins_9" to listOf("wait_7", "wait_5"),
+                    "wait_5" to listOf("manualJudgment_3"),
+                    "wait_7" to listOf("manualJudgment_3")
+            )
+    )
+
+    @Test
+    fun `canonical form and fingerprint ignore refIds and stage order`() {
+        assertThat(sameStagesRenamedAndReordered.canonicalForm()).isEqualTo(stages.canonicalForm())
+        assertThat(sameStagesRenamedAndReordered.hashes().fingerprint).isEqualTo(stages.hashes().fingerprint)
+        assertThat(stages.canonicalForm().stages.map { it.refId })
+                .containsExactlyInAnyOrder("manualJudgment1", "wait2", "wait3", "jenkins4")
+    }
+
+    @Test
+    fun `a missing base stage hashes like an empty one`() {
+        val withoutBaseStage = Stages(stages.stages.map { it.copy(common = null) }, stages.stageRequirements)
+
+        assertThat(withoutBaseStage.hashes().contentHash("wait2")).isEqualTo(stages.hashes().contentHash("wait2"))
+        assertThat(withoutBaseStage.canonicalForm()).isEqualTo(stages.canonicalForm())
+    }
+
+    @Test
+    fun `pipeline fingerprint changes with pipeline attributes`() {
+        val pipeline = pipeline("release") { stages = this@StageHashesTest.stages }
+        val renamed = pipeline("release") { stages = sameStagesRenamedAndReordered }
+
+        assertThat(renamed.fingerprint()).isEqualTo(pipeline.fingerprint())
+        assertThat(pipeline.copy(name = "hotfix").fingerprint()).isNotEqualTo(pipeline.fingerprint())
+    }
+
+    @Test
+    fun `a changed stage only changes the upstream hashes of its downstream cone`() {
+        val hashes = stages.hashes()
+        val changed = Stages(
+                stages.stages.map { if (it.refId == "wait2") it.copy(stageConfig = Wait(10)) else it },
+                stages.stageRequirements
+        )
+
+        val rehashed = StageHashes.of(changed, hashes)
+
+        assertThat(rehashed.upstreamHash("manualJudgment1")).isEqualTo(hashes.upstreamHash("manualJudgment1"))
+        assertThat(rehashed.upstreamHash("wait3")).isEqualTo(hashes.upstreamHash("wait3"))
+        assertThat(rehashed.upstreamHash("wait2")).isNotEqualTo(hashes.upstreamHash("wait2"))
+        assertThat(rehashed.upstreamHash("jenkins4")).isNotEqualTo(hashes.upstreamHash("jenkins4"))
+        assertThat(rehashed.upstreamHash("jenkins4")).isEqualTo(changed.hashes().upstreamHash("jenkins4"))
+        assertThat(rehashed.fingerprint).isNotEqualTo(hashes.fingerprint)
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.analysis
+
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class TransitiveReductionTest {
+
+    @Test
+    fun `requirements implied by other requirements are removed`() {
+        val stages = Stages(
+                listOf(
+                        PipelineStage("wait1", Wait(1)),
+                        PipelineStage("wait2", Wait(2)),
+                        PipelineStage("wait3", Wait(3)),
+                        PipelineStage("manualJudgment4", ManualJudgment())
+                ),
+                mapOf(
+                        "wait2" to listOf("wait1"),
+                        "wait3" to listOf("wait2", "wait1"),
+                        "manualJudgment4" to listOf("wait1", "wait3", "wait2")
+                )
+        )
+
+        val reduction = stages.transitiveReduction()
+
+        assertThat(reduction.removedEdgeCount).isEqualTo(3)
+        assertThat(reduction.removedRequirements).isEqualTo(mapOf(
+                "wait3" to listOf("wait1"),
+                "manualJudgment4" to listOf("wait1", "wait2")
+        ))
+        assertThat(reduction.stages.stages).isEqualTo(stages.stages)
+        assertThat(reduction.stages.stageRequirements).isEqualTo(mapOf(
+                "wait2" to listOf("wait1"),
+                "wait3" to listOf("wait2"),
+                "manualJudgment4" to listOf("wait3")
+        ))
+    }
+
+    @Test
+    fun `graphs built by the DSL are already reduced`() {
+        val stages = stages {
+            stage(Wait(1)) then {
+                stage(Wait(2))
+                stage(Wait(3))
+            } then {
+                stage(ManualJudgment())
+            }
+        }
+
+        val reduction = stages.transitiveReduction()
+
+        assertThat(reduction.removedEdgeCount).isZero()
+        assertThat(reduction.stages).isEqualTo(stages)
+    }
+
+}
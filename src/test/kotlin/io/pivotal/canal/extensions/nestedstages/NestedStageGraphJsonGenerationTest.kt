@@ -22,6 +22,7 @@ import io.pivotal.canal.model.cloudfoundry.DeployService
 import io.pivotal.canal.model.cloudfoundry.DestroyService
 import io.pivotal.canal.model.cloudfoundry.ManifestSourceDirect
 import io.pivotal.canal.model.cloudfoundry.cloudFoundryCloudProvider
+import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.Test
 
 import net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson
@@ -231,4 +232,27 @@ class NestedStageGraphJsonGenerationTest {
         assertThatJson(stagesJson).isEqualTo(json)
     }
 
+    @Test
+    fun `deep then chains and wide fan outs`() {
+        val depth = 10000
+        val width = 2000
+        val stages = stages {
+            var last: StageDefInvoker = stage(Wait(0))
+            (1 until depth).forEach { last = last then { stage(Wait(it.toLong())) } }
+            last then {
+                (0 until width).forEach { stage(Wait(it.toLong())) }
+            } then {
+                stage(ManualJudgment())
+            }
+        }
+
+        assertThat(stages.stages).hasSize(depth + width + 1)
+        assertThat(stages.stageRequirements["wait$depth"]).containsExactly("wait${depth - 1}")
+        assertThat(stages.stageRequirements["wait${depth + width}"]).containsExactly("wait$depth")
+        assertThat(stages.stageRequirements["manualJudgment${depth + width + 1}"])
+                .hasSize(width)
+                .startsWith("wait${depth + 1}")
+                .endsWith("wait${depth + width}")
+    }
+
 }
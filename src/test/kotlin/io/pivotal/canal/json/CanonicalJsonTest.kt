@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.json
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.cloudfoundry.DestroyService
+import io.pivotal.canal.model.cloudfoundry.cloudFoundryCloudProvider
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class CanonicalJsonTest {
+
+    @Test
+    fun `keys are sorted and there is no whitespace`() {
+        assertThat(PipelineModel("release").toCanonicalJson()).isEqualTo(
+                """{"description":"","expectedArtifacts":[],"keepWaitingPipelines":false,"limitConcurrent":true,""" +
+                        """"name":"release","notifications":[],"parameterConfig":[],"stages":[],"triggers":[]}"""
+        )
+    }
+
+    @Test
+    fun `numbers are normalized`() {
+        val json = JsonAdapterFactory().createAdapter<Any>()
+                .toCanonicalJson(mapOf("b" to 30.0, "a" to listOf(1L, 2.50, 0.1f, 1e25, -0.0)))
+
+        assertThat(json).isEqualTo("""{"a":[1,2.5,0.1,1E+25,0],"b":30}""")
+    }
+
+    @Test
+    fun `equal pipelines give the same bytes`() {
+        fun pipeline() = PipelineModel("release", stages = Stages(
+                listOf(
+                        PipelineStage("destroyService1",
+                                DestroyService(cloudFoundryCloudProvider("creds1"), "dev > dev", "service1"),
+                                BaseStage("Destroy", failPipeline = true)),
+                        PipelineStage("wait2", Wait(30), BaseStage())
+                ),
+                mapOf("wait2" to listOf("destroyService1"))
+        ))
+
+        val json = pipeline().toCanonicalJson()
+
+        assertThat(json).isEqualTo(pipeline().toCanonicalJson())
+        assertThat(json).contains(""""stages":[{"action":"destroyService","cloudProvider":"cloudfoundry",""")
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.json
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.cloudfoundry.DestroyService
+import io.pivotal.canal.model.cloudfoundry.cloudFoundryCloudProvider
+import net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.reflect.full.memberProperties
+
+class CloudSpecificToJsonAdapterTest {
+
+    val adapter = JsonAdapterFactory().createAdapter<SpecificStageConfig>()
+
+    @Test
+    fun `provider properties are flattened into the stage`() {
+        val stageConfig = DestroyService(cloudFoundryCloudProvider("creds1"), "dev > dev", "serviceName1")
+
+        val json = adapter.toJson(stageConfig)
+
+        assertThatJson(json).isEqualTo("""
+            {
+                "type": "destroyService",
+                "action": "destroyService",
+                "region": "dev > dev",
+                "serviceName": "serviceName1",
+                "credentials": "creds1",
+                "cloudProvider": "cloudfoundry",
+                "cloudProviderType": "cloudfoundry"
+            }
+        """)
+        assertThat(adapter.fromJson(json)).isEqualTo(stageConfig)
+    }
+
+    data class CredentialedStage(
+            override val provider: CloudProvider,
+            val credentials: String,
+            val region: String
+    ) : SpecificStageConfig, CloudSpecific {
+        override val type = "credentialedStage"
+    }
+
+    @Test
+    fun `provider properties keep the order of the property map merge`() {
+        val stageConfig = CredentialedStage(cloudFoundryCloudProvider("providerCreds"), "stageCreds", "dev > dev")
+        val stageProperties = CredentialedStage::class.memberProperties.map { it.name to it.get(stageConfig) }.toMap()
+        val provider = stageConfig.provider
+        val providerProperties = provider.javaClass.kotlin.memberProperties.map { it.name to it.get(provider) }.toMap()
+        val merged = stageProperties.minus("provider") + providerProperties
+
+        val json = adapter.toJson(stageConfig)
+
+        assertThat(json).isEqualTo(JsonAdapterFactory().createAdapter<Any>().toJson(merged))
+        assertThatJson(json).node("credentials").isEqualTo("providerCreds")
+    }
+
+    @Test
+    fun `stages without a provider are written as they are`() {
+        assertThatJson(adapter.toJson(Wait(30))).isEqualTo("""{ "type": "wait", "waitTime": "30" }""")
+        assertThat(adapter.fromJson(adapter.toJson(Wait(30)))).isEqualTo(Wait(30))
+    }
+
+    @Test
+    fun `cloud specific stage types come from the stage type registry`() {
+        assertThat(cloudSpecificStageTypes).containsExactlyInAnyOrder(
+                "destroyServerGroup", "deployService", "destroyService", "disableServerGroup", "enableServerGroup",
+                "resizeServerGroup", "rollbackCluster"
+        )
+    }
+
+    @Test
+    fun `large imports of mixed stages`() {
+        val provider = cloudFoundryCloudProvider("creds1")
+        val stages = Stages((1..20000).map {
+            val stageConfig = if (it % 2 == 0) Wait(it.toLong()) else DestroyService(provider, "dev > dev", "service$it")
+            PipelineStage("stage$it", stageConfig)
+        })
+        val stagesAdapter = JsonAdapterFactory().createAdapter<Stages>()
+
+        val imported = stagesAdapter.fromJson(stagesAdapter.toJson(stages))!!
+
+        assertThat(imported.stages.map { it.stageConfig }).isEqualTo(stages.stages.map { it.stageConfig })
+    }
+
+}
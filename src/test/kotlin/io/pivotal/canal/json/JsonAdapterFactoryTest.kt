@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.json
+
+import com.squareup.moshi.JsonAdapter
+import com.squareup.moshi.Moshi
+import com.squareup.moshi.kotlin.reflect.KotlinJsonAdapterFactory
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.cloudfoundry.DeployService
+import io.pivotal.canal.model.cloudfoundry.DirectManifest
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.lang.reflect.Type
+import java.net.URL
+import java.net.URLClassLoader
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class JsonAdapterFactoryTest {
+
+    @Test
+    fun `adapters are built once and shared`() {
+        assertThat(JsonAdapterFactory().createAdapter<PipelineModel>())
+                .isSameAs(JsonAdapterFactory().createAdapter<PipelineModel>())
+        assertThat(JsonAdapterFactory().createNonCloudSpecificAdapter<SpecificStageConfig>())
+                .isSameAs(JsonAdapterFactory().createNonCloudSpecificAdapter<SpecificStageConfig>())
+        assertThat(JsonAdapterFactory.moshi).isNotSameAs(JsonAdapterFactory.nonCloudSpecificMoshi)
+    }
+
+    @Test
+    fun `model adapters are generated rather than reflective`() {
+        listOf(
+                JsonAdapterFactory().createAdapter<PipelineModel>(),
+                JsonAdapterFactory().createAdapter<BaseStage>(),
+                JsonAdapterFactory().createAdapter<Wait>(),
+                JsonAdapterFactory().createAdapter<DeployService>(),
+                JsonAdapterFactory().createAdapter<DirectManifest>(),
+                JsonAdapterFactory().createAdapter<PipelineTemplate>()
+        ).forEach {
+            assertThat(it.toString()).startsWith("GeneratedJsonAdapter(")
+        }
+    }
+
+    @Test
+    fun `generated adapters write the same JSON text as the reflective ones`() {
+        val manifest = DirectManifest(services = listOf("db"), routes = listOf("app.example.com"), instanceCount = 2)
+        val parameter = Parameter("version", label = "Version", options = listOf(Value("1.0"), Value("2.0")))
+        val precondition = ExpressionPrecondition("\${ trigger.type == 'git' }")
+
+        val generatedJson = mapOf(
+                DirectManifest::class.java to JsonAdapterFactory().createAdapter<DirectManifest>().toJson(manifest),
+                Parameter::class.java to JsonAdapterFactory().createAdapter<Parameter>().toJson(parameter),
+                ExpressionPrecondition::class.java to
+                        JsonAdapterFactory().createAdapter<ExpressionPrecondition>().toJson(precondition)
+        )
+
+        generatedJson.forEach { (type, json) ->
+            val reflectiveAdapter = reflectiveAdapter(type)
+            assertThat(reflectiveAdapter.toJson(reflectiveAdapter.fromJson(json))).isEqualTo(json)
+        }
+    }
+
+    @Test
+    fun `shared adapters can be used from many threads`() {
+        val pipeline = PipelineModel("release", stages = Stages(
+                listOf(PipelineStage("wait1", Wait(10)), PipelineStage("manualJudgment2", ManualJudgment())),
+                mapOf("manualJudgment2" to listOf("wait1"))
+        ))
+        val expected = JsonAdapterFactory().createAdapter<PipelineModel>().toJson(pipeline)
+
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val results = executor.invokeAll((1..64).map {
+                Callable { JsonAdapterFactory().createAdapter<PipelineModel>().toJson(pipeline) }
+            })
+            assertThat(results.map { it.get() }).containsOnly(expected)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    /**
+     * KotlinJsonAdapterFactory prefers the generated adapter of a class, so the reflective one is built for a copy of
+     * the class loaded where the generated adapters cannot be found.
+     */
+    private fun reflectiveAdapter(type: Class<*>): JsonAdapter<Any> {
+        val classLoader = WithoutGeneratedAdapters(type.protectionDomain.codeSource.location, type.classLoader)
+        val reflectiveType: Type = classLoader.loadClass(type.name)
+        return Moshi.Builder().add(KotlinJsonAdapterFactory()).build().adapter<Any>(reflectiveType)
+    }
+
+    private class WithoutGeneratedAdapters(classes: URL, parent: ClassLoader) : URLClassLoader(arrayOf(classes), parent) {
+        override fun loadClass(name: String, resolve: Boolean): Class<*> {
+            if (!name.startsWith("io.pivotal.canal.")) {
+                return super.loadClass(name, resolve)
+            }
+            if (name.endsWith("JsonAdapter")) {
+                throw ClassNotFoundException(name)
+            }
+            synchronized(getClassLoadingLock(name)) {
+                return findLoadedClass(name) ?: findClass(name)
+            }
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.json
+
+import io.pivotal.canal.model.*
+import net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson
+import okio.Buffer
+import org.assertj.core.api.Assertions.assertThat
+import org.intellij.lang.annotations.Language
+import org.junit.jupiter.api.Test
+import java.math.BigDecimal
+
+class PipelineDumpReaderTest {
+
+    @Language("JSON")
+    val dump = """
+        [
+            {
+                "id": "1234",
+                "application": "app1",
+                "name": "deploy",
+                "stages": [
+                    { "refId": "1", "requisiteStageRefIds": [], "type": "wait", "waitTime": "30" },
+                    {
+                        "refId": "2",
+                        "requisiteStageRefIds": ["1"],
+                        "type": "someFutureStage",
+                        "name": "Future",
+                        "settings": { "enabled": true, "retries": 3 }
+                    }
+                ]
+            },
+            { "application": "app1", "description": "missing its name" },
+            { "application": "app2", "name": "release" }
+        ]
+    """
+
+    @Test
+    fun `pipelines are read one at a time with unknown stages kept`() {
+        val reader = PipelineDumpReader(Buffer().writeUtf8(dump))
+
+        val imported = reader.asSequence().toList()
+
+        assertThat(imported.map { it.application to it.pipeline.name })
+                .containsExactly("app1" to "deploy", "app2" to "release")
+        assertThat(imported[0].pipeline.stages.stages[1]).isEqualTo(PipelineStage(
+                "2",
+                UnknownStage("someFutureStage", mapOf("settings" to mapOf("enabled" to true, "retries" to 3))),
+                BaseStage("Future")
+        ))
+        val stats = reader.stats
+        assertThat(stats.pipelines).isEqualTo(2)
+        assertThat(stats.skippedPipelines).isEqualTo(1)
+        assertThat(stats.stages).isEqualTo(2)
+        assertThat(stats.unknownStageTypes).isEqualTo(mapOf("someFutureStage" to 1))
+        assertThat(stats.bytesRead).isEqualTo(dump.toByteArray().size.toLong())
+    }
+
+    @Test
+    fun `unknown stages are written back as they were read`() {
+        val pipeline = PipelineDumpReader(Buffer().writeUtf8(dump)).next().pipeline
+
+        val stagesJson = JsonAdapterFactory().createAdapter<Stages>().toJson(pipeline.stages)
+
+        assertThatJson(stagesJson).node("[1]").isEqualTo("""
+            {
+                "refId": "2",
+                "requisiteStageRefIds": ["1"],
+                "type": "someFutureStage",
+                "name": "Future",
+                "settings": { "enabled": true, "retries": 3 }
+            }
+        """)
+    }
+
+    @Test
+    fun `numbers of unknown stages keep all of their digits`() {
+        val stage = """{ "refId": "1", "type": "someFutureStage", "buildNumber": 9007199254740993, "ratio": 0.10 }"""
+        val pipeline = PipelineDumpReader(Buffer().writeUtf8("""[{ "name": "deploy", "stages": [$stage] }]""")).next()
+                .pipeline
+
+        val stagesJson = JsonAdapterFactory().createAdapter<Stages>().toJson(pipeline.stages)
+
+        assertThat(pipeline.stages.stages[0].stageConfig).isEqualTo(UnknownStage(
+                "someFutureStage",
+                mapOf("buildNumber" to 9007199254740993L, "ratio" to BigDecimal("0.10"))
+        ))
+        assertThat(stagesJson).contains("\"buildNumber\":9007199254740993").contains("\"ratio\":0.10")
+    }
+
+    @Test
+    fun `pipelines the model adapters fail on are skipped`() {
+        val checkPreconditions = """
+            { "refId": "1", "type": "checkPreconditions", "preconditions": [{ "type": "expression", "context": "true" }] }
+        """
+        val reader = PipelineDumpReader(Buffer().writeUtf8("""
+            [{ "name": "deploy", "stages": [$checkPreconditions] }, { "name": "release" }]
+        """))
+
+        assertThat(reader.asSequence().map { it.pipeline.name }.toList()).containsExactly("release")
+        assertThat(reader.stats.skippedPipelines).isEqualTo(1)
+    }
+
+    @Test
+    fun `exports of this library can be read back`() {
+        val pipelines = Pipelines()
+                .withPipelinesForApp("app1", PipelineModel("deploy"), PipelineModel("rollback"))
+                .withPipelinesForApp("app2")
+                .withPipelinesForApp("app3", PipelineModel("release"))
+        val byApplication = Buffer()
+        pipelines.writeTo(byApplication)
+        val ndjson = Buffer()
+        pipelines.writeNdjsonTo(ndjson)
+
+        listOf(
+                PipelineDumpReader(byApplication, DumpFormat.ByApplication),
+                PipelineDumpReader(ndjson, DumpFormat.Ndjson)
+        ).forEach { reader ->
+            assertThat(reader.asSequence().map { it.application to it.pipeline }.toList()).containsExactly(
+                    "app1" to PipelineModel("deploy"),
+                    "app1" to PipelineModel("rollback"),
+                    "app3" to PipelineModel("release")
+            )
+        }
+    }
+
+}
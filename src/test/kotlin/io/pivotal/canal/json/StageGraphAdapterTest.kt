@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.json
+
+import io.pivotal.canal.model.*
+import io.pivotal.canal.model.cloudfoundry.DeployService
+import io.pivotal.canal.model.cloudfoundry.ManifestSourceArtifact
+import io.pivotal.canal.model.cloudfoundry.cloudFoundryCloudProvider
+import org.assertj.core.api.Assertions.assertThat
+import org.intellij.lang.annotations.Language
+import org.junit.jupiter.api.Test
+
+class StageGraphAdapterTest {
+
+    val adapter = JsonAdapterFactory().createAdapter<Stages>()
+
+    @Test
+    fun `stage fields are routed to the execution, common attributes and stage config`() {
+        @Language("JSON")
+        val json = """
+            [
+                {
+                    "refId": "wait1",
+                    "requisiteStageRefIds": [],
+                    "type": "wait",
+                    "waitTime": "60",
+                    "name": "Cool down",
+                    "stageEnabled": { "type": "expression", "expression": false },
+                    "failPipeline": true,
+                    "restrictExecutionDuringTimeWindow": false,
+                    "inject": { "type": "first", "first": true }
+                },
+                {
+                    "type": "deployService",
+                    "action": "deployService",
+                    "cloudProvider": "cloudfoundry",
+                    "cloudProviderType": "cloudfoundry",
+                    "credentials": "creds1",
+                    "region": "dev > dev",
+                    "manifest": { "type": "artifact", "account": "public", "reference": "mongo" },
+                    "refId": "deployService2",
+                    "requisiteStageRefIds": ["wait1"],
+                    "comments": "deploy mongo"
+                }
+            ]
+        """
+
+        val stages = adapter.fromJson(json)
+
+        assertThat(stages).isEqualTo(Stages(
+                listOf(
+                        PipelineStage("wait1", Wait(60),
+                                BaseStage("Cool down", stageEnabled = falseCondition, failPipeline = true),
+                                Inject.First()),
+                        PipelineStage("deployService2",
+                                DeployService(cloudFoundryCloudProvider("creds1"), "dev > dev",
+                                        ManifestSourceArtifact("public", "mongo")),
+                                BaseStage(comments = "deploy mongo"))
+                ),
+                mapOf("deployService2" to listOf("wait1"))
+        ))
+    }
+
+    @Test
+    fun `stages read back as they were written`() {
+        val stages = Stages(
+                listOf(
+                        PipelineStage("manualJudgment1", ManualJudgment("Ship it?"), BaseStage(comments = "gate")),
+                        PipelineStage("jenkins2", Jenkins("build", "jenkins1", mapOf("branch" to "main")), BaseStage()),
+                        PipelineStage("wait3", Wait(10), BaseStage(notifications = listOf(
+                                EmailNotification("team@example.com", "stage"))))
+                ),
+                mapOf("jenkins2" to listOf("manualJudgment1"), "wait3" to listOf("manualJudgment1", "jenkins2"))
+        )
+
+        assertThat(adapter.fromJson(adapter.toJson(stages))).isEqualTo(stages)
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class AppendOnlyCollectionsTest {
+
+    @Test
+    fun `appending to the latest list shares its storage`() {
+        val one = AppendOnlyList.of(listOf(1))
+        val two = one.append(2)
+        val three = two.append(3)
+
+        assertThat(two.sharesStorageWith(one)).isTrue()
+        assertThat(three.sharesStorageWith(one)).isTrue()
+        assertThat(one).containsExactly(1)
+        assertThat(two).containsExactly(1, 2)
+        assertThat(three).containsExactly(1, 2, 3)
+    }
+
+    @Test
+    fun `appending to an older list copies it once`() {
+        val two = AppendOnlyList.of(listOf(1)).append(2)
+        val three = two.append(3)
+        val branch = two.append(4)
+        val longerBranch = branch.append(5)
+
+        assertThat(branch.sharesStorageWith(three)).isFalse()
+        assertThat(longerBranch.sharesStorageWith(branch)).isTrue()
+        assertThat(two).containsExactly(1, 2)
+        assertThat(three).containsExactly(1, 2, 3)
+        assertThat(longerBranch).containsExactly(1, 2, 4, 5)
+    }
+
+    @Test
+    fun `adding to the latest map shares its storage`() {
+        val one = AppendOnlyMap.of(mapOf("a" to 1))
+        val two = one.withEntry("b", 2)
+
+        assertThat(two.sharesStorageWith(one)).isTrue()
+        assertThat(one).isEqualTo(mapOf("a" to 1))
+        assertThat(one).doesNotContainKey("b")
+        assertThat(two).isEqualTo(mapOf("a" to 1, "b" to 2))
+    }
+
+    @Test
+    fun `adding to an older map or adding a present key copies it`() {
+        val two = AppendOnlyMap.of(mapOf("a" to 1)).withEntry("b", 2)
+        val three = two.withEntry("c", 3)
+        val branch = two.withEntry("d", 4)
+        val replaced = three.withEntry("a", 5)
+
+        assertThat(branch.sharesStorageWith(three)).isFalse()
+        assertThat(replaced.sharesStorageWith(three)).isFalse()
+        assertThat(three).isEqualTo(mapOf("a" to 1, "b" to 2, "c" to 3))
+        assertThat(branch).isEqualTo(mapOf("a" to 1, "b" to 2, "d" to 4))
+        assertThat(replaced).isEqualTo(mapOf("a" to 5, "b" to 2, "c" to 3))
+    }
+
+}
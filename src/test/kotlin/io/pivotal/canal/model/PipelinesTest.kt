@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model
+
+import io.pivotal.canal.json.JsonAdapterFactory
+import io.pivotal.canal.model.extensions.InvalidStageGraphException
+import net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.ByteArrayOutputStream
+import java.nio.file.FileSystemException
+import java.nio.file.Files
+import java.nio.file.Path
+
+class PipelinesTest {
+
+    val pipelines = Pipelines()
+            .withPipelinesForApp("app1",
+                    PipelineModel("deploy", stages = Stages(listOf(PipelineStage("wait1", Wait(10), BaseStage())))),
+                    PipelineModel("rollback"))
+            .withPipelinesForApp("app2", PipelineModel("release", description = "Ships it"))
+
+    @Test
+    fun `pipelines are streamed as the same JSON`() {
+        val out = ByteArrayOutputStream()
+
+        pipelines.writeTo(out)
+
+        assertThat(out.toString("UTF-8")).isEqualTo(pipelines.toJson())
+        assertThatJson(out.toString("UTF-8")).node("app1[1].name").isEqualTo("rollback")
+    }
+
+    @Test
+    fun `pipelines are streamed as newline delimited JSON`() {
+        val out = ByteArrayOutputStream()
+
+        pipelines.writeNdjsonTo(out)
+
+        val lines = out.toString("UTF-8").lines().filter { it.isNotEmpty() }
+        assertThat(lines).hasSize(3)
+        assertThatJson(lines[0]).node("application").isEqualTo("app1")
+        assertThatJson(lines[2]).node("application").isEqualTo("app2")
+        assertThat(lines.map { JsonAdapterFactory().createAdapter<PipelineModel>().fromJson(it) })
+                .isEqualTo(pipelines.pipelinesForApp.values.flatten())
+    }
+
+    @Test
+    fun `nothing is written when validation fails`() {
+        val invalid = Pipelines().withPipelinesForApp("app1", PipelineModel("cycle", stages = Stages(
+                listOf(PipelineStage("wait1", Wait(1)), PipelineStage("wait2", Wait(2))),
+                mapOf("wait1" to listOf("wait2"), "wait2" to listOf("wait1"))
+        )))
+        val out = ByteArrayOutputStream()
+
+        assertThatThrownBy { invalid.writeNdjsonTo(out, validate = true) }
+                .isInstanceOf(InvalidStageGraphException::class.java)
+        assertThat(out.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `one shard is written per application`(@TempDir directory: Path) {
+        val shards = pipelines.writeShards(directory, parallelism = 2)
+
+        assertThat(shards).containsExactly(directory.resolve("app1.json"), directory.resolve("app2.json"))
+        assertThatJson(String(Files.readAllBytes(shards[0]))).isEqualTo(JsonAdapterFactory()
+                .createAdapter<List<PipelineModel>>().toJson(pipelines.pipelinesForApp.getValue("app1")))
+        Files.list(directory).use { files ->
+            assertThat(files.map { it.fileName.toString() }.sorted().toArray()).containsExactly("app1.json", "app2.json")
+        }
+    }
+
+    @Test
+    fun `one shard is written per pipeline with safe unique names`(@TempDir directory: Path) {
+        val clashing = pipelines.withPipelinesForApp("app1", PipelineModel("Deploy"), PipelineModel("roll/back"))
+
+        val shards = clashing.writeShards(directory, ShardLayout.PerPipeline)
+
+        assertThat(shards.map { directory.relativize(it).toString().replace('\\', '/') }).containsExactly(
+                "app1/deploy.json",
+                "app1/rollback.json",
+                "app1/Deploy-2.json",
+                "app1/roll_back.json",
+                "app2/release.json"
+        )
+        assertThat(JsonAdapterFactory().createAdapter<PipelineModel>().fromJson(String(Files.readAllBytes(shards[4]))))
+                .isEqualTo(PipelineModel("release", description = "Ships it"))
+    }
+
+    @Test
+    fun `no shard is still being written once a failed shard is reported`(@TempDir directory: Path) {
+        val many = (1..40).fold(Pipelines()) { all, i -> all.withPipelinesForApp("app$i", PipelineModel("deploy$i")) }
+        Files.createDirectories(directory.resolve("app5.json").resolve("taken"))
+
+        assertThatThrownBy { many.writeShards(directory, parallelism = 2) }
+                .isInstanceOf(FileSystemException::class.java)
+
+        val written = Files.list(directory).use { files -> files.map { it.fileName.toString() }.sorted().toArray() }
+        Thread.sleep(200)
+        Files.list(directory).use { files ->
+            assertThat(files.map { it.fileName.toString() }.sorted().toArray()).isEqualTo(written)
+        }
+        assertThat(written.filter { it.toString().endsWith(".tmp") }).isEmpty()
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model
+
+import io.pivotal.canal.extensions.fluentstages.firstStages
+import io.pivotal.canal.extensions.fluentstages.lastStages
+import io.pivotal.canal.model.extensions.initialStages
+import io.pivotal.canal.model.extensions.terminalStages
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class StageGraphIndexTest {
+
+    val wait1 = PipelineStage("wait1", Wait(1))
+    val wait2 = PipelineStage("wait2", Wait(2))
+    val wait3 = PipelineStage("wait3", Wait(3))
+    val judgment4 = PipelineStage("manualJudgment4", ManualJudgment())
+
+    val stages = Stages(
+            listOf(wait1, wait2, wait3, judgment4),
+            mapOf(
+                    "wait1" to emptyList(),
+                    "wait2" to listOf("wait1"),
+                    "wait3" to listOf("wait1", "missing"),
+                    "manualJudgment4" to listOf("wait2", "wait3", "wait2")
+            )
+    )
+
+    @Test
+    fun `adjacency arrays follow stage requirements`() {
+        val graph = stages.graph
+
+        assertThat(graph.predecessors[3]).containsExactly(1, 2)
+        assertThat(graph.predecessors[2]).containsExactly(0)
+        assertThat(graph.successors[0]).containsExactly(1, 2)
+        assertThat(graph.successors[3]).isEmpty()
+        assertThat(graph.indexOf("wait3")).isEqualTo(2)
+        assertThat(graph.indexOf("missing")).isEqualTo(-1)
+        assertThat(graph.edgeCount).isEqualTo(4)
+    }
+
+    @Test
+    fun `boundary stages`() {
+        assertThat(stages.initialStages).containsExactly(wait1)
+        assertThat(stages.firstStages).isEmpty()
+        assertThat(stages.terminalStages).containsExactly(judgment4)
+        assertThat(stages.lastStages).containsExactly(judgment4)
+    }
+
+    @Test
+    fun `index is built once per stages instance`() {
+        assertThat(stages.graph).isSameAs(stages.graph)
+        assertThat(stages.copy().graph).isNotSameAs(stages.graph)
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model
+
+import io.pivotal.canal.extensions.builder.WaitStageBuilder
+import io.pivotal.canal.extensions.fluentstages.addStage
+import io.pivotal.canal.extensions.fluentstages.andThen
+import io.pivotal.canal.extensions.fluentstages.parallel
+import io.pivotal.canal.extensions.nestedstages.StageDefInvoker
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.model.extensions.terminalStages
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class StagesBuilderTest {
+
+    @Test
+    fun `earlier versions are unaffected by appends to later versions`() {
+        val wait1 = StagesBuilder().addStage(PipelineStage("wait1", Wait(1))).build()
+        val wait2 = StagesBuilder(wait1).addStage(PipelineStage("wait2", Wait(2)), listOf("wait1")).build()
+        val wait3 = StagesBuilder(wait2).addStage(PipelineStage("wait3", Wait(3)), listOf("wait2")).build()
+
+        assertThat(wait1).isEqualTo(Stages(listOf(PipelineStage("wait1", Wait(1)))))
+        assertThat(wait2.stages).hasSize(2)
+        assertThat(wait2.stageRequirements).isEqualTo(mapOf("wait2" to listOf("wait1")))
+        assertThat(wait3.stageRequirements).containsOnlyKeys("wait2", "wait3")
+    }
+
+    @Test
+    fun `branching from an earlier version copies instead of overwriting`() {
+        val wait1 = StagesBuilder().addStage(PipelineStage("wait1", Wait(1))).build()
+        val left = StagesBuilder(wait1).addStage(PipelineStage("left", Wait(2)), listOf("wait1")).build()
+        val right = StagesBuilder(wait1).addStage(PipelineStage("right", Wait(3)), listOf("wait1")).build()
+
+        assertThat(left.stages.map { it.refId }).containsExactly("wait1", "left")
+        assertThat(right.stages.map { it.refId }).containsExactly("wait1", "right")
+        assertThat(left.stageRequirements).containsOnlyKeys("left")
+        assertThat(right.stageRequirements).containsOnlyKeys("right")
+    }
+
+    @Test
+    fun `extending the latest version shares its storage and extending an older one copies it`() {
+        val wait1 = StagesBuilder().addStage(PipelineStage("wait1", Wait(1))).build()
+        val wait2 = StagesBuilder(wait1).addStage(PipelineStage("wait2", Wait(2)), listOf("wait1")).build()
+        val branch = StagesBuilder(wait1).addStage(PipelineStage("branch", Wait(3)), listOf("wait1")).build()
+
+        assertThat((wait2.stages as AppendOnlyList<*>).sharesStorageWith(wait1.stages as AppendOnlyList<*>)).isTrue()
+        assertThat((branch.stages as AppendOnlyList<*>).sharesStorageWith(wait2.stages as AppendOnlyList<*>)).isFalse()
+        assertThat(wait1.stages.map { it.refId }).containsExactly("wait1")
+    }
+
+    @Test
+    fun `replacing stage requirements copies instead of overwriting`() {
+        val original = StagesBuilder()
+                .addStage(PipelineStage("wait1", Wait(1)))
+                .addStage(PipelineStage("wait2", Wait(2)), listOf("wait1"))
+                .build()
+        val replaced = StagesBuilder(original).requireStages("wait2", emptyList()).build()
+
+        assertThat(original.stageRequirements["wait2"]).containsExactly("wait1")
+        assertThat(replaced.stageRequirements["wait2"]).isEmpty()
+    }
+
+    @Test
+    fun `terminal stages are tracked across built versions`() {
+        val fanOut = StagesBuilder()
+                .addStage(PipelineStage("wait1", Wait(1)))
+                .addStage(PipelineStage("wait2", Wait(2)), listOf("wait1"))
+                .addStage(PipelineStage("wait3", Wait(3)), listOf("wait1"))
+                .build()
+        val builder = StagesBuilder(fanOut).addStage(PipelineStage("manualJudgment4", ManualJudgment()))
+
+        assertThat(fanOut.terminalStages.map { it.refId }).containsExactly("wait2", "wait3")
+        assertThat(builder.terminalStages.map { it.refId }).containsExactly("wait2", "wait3", "manualJudgment4")
+
+        builder.requireStages("manualJudgment4", listOf("wait2", "wait3"))
+
+        assertThat(builder.terminalStages.map { it.refId }).containsExactly("manualJudgment4")
+        assertThat(builder.build().terminalStages).isEqualTo(builder.build().graph.terminalStages)
+    }
+
+    @Test
+    fun `wide fan outs share the terminal stages of the graphs they extend`() {
+        val width = 20000
+        var fanOut = StagesBuilder().addStage(PipelineStage("wait0", Wait(0))).build()
+        (1..width).forEach {
+            fanOut = StagesBuilder(fanOut).addStage(PipelineStage("wait$it", Wait(it.toLong())), listOf("wait0")).build()
+        }
+        val fannedIn = StagesBuilder(fanOut)
+                .addStage(PipelineStage("manualJudgment", ManualJudgment()), fanOut.terminalStages.map { it.refId })
+                .build()
+
+        assertThat(fanOut.terminalStages).hasSize(width)
+        assertThat(fanOut.terminalStages).isEqualTo(fanOut.graph.terminalStages)
+        assertThat(fannedIn.terminalStages.map { it.refId }).containsExactly("manualJudgment")
+    }
+
+    @Test
+    fun `fluent parallel leaves stages with explicitly empty requirements where they are`() {
+        val branch = Stages(
+                listOf(PipelineStage("wait1", Wait(1)), PipelineStage("wait2", Wait(2))),
+                mapOf("wait2" to emptyList())
+        )
+
+        val stages = Stages().addStage(Wait(0)).andThen(Wait(1)).parallel(branch)
+
+        assertThat(stages.stageRequirements).isEqualTo(mapOf(
+                "wait2" to listOf("wait1"),
+                "wait3" to listOf("wait2"),
+                "wait4" to emptyList()
+        ))
+    }
+
+    @Test
+    fun `all three DSLs build large graphs`() {
+        val stageCount = 5000
+
+        var fluentStages = Stages().addStage(Wait(0))
+        (1 until stageCount).forEach { fluentStages = fluentStages.andThen(Wait(it.toLong())) }
+        val nestedStages = stages {
+            var last: StageDefInvoker = stage(Wait(0))
+            (1 until stageCount).forEach { last = last then { stage(Wait(it.toLong())) } }
+        }
+
+        assertThat(fluentStages.stages).hasSize(stageCount)
+        assertThat(fluentStages.stageRequirements["wait$stageCount"]).containsExactly("wait${stageCount - 1}")
+        assertThat(nestedStages).isEqualTo(fluentStages)
+
+        var grapher = WaitStageBuilder("0").toGraph()
+        (1 until stageCount).forEach { grapher = grapher.then(WaitStageBuilder(it.toString())) }
+        val graphedStages = grapher.graph()
+
+        assertThat(graphedStages.stages.map { it.stageConfig }).isEqualTo(fluentStages.stages.map { it.stageConfig })
+        assertThat(graphedStages.stageRequirements["wait_$stageCount"]).containsExactly("wait_${stageCount - 1}")
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model.extensions
+
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.junit.jupiter.api.Test
+
+class StageGraphExtensionsTest {
+
+    val waitThenJudge = Stages(
+            listOf(
+                    PipelineStage("wait_1", Wait(1)),
+                    PipelineStage("manualJudgment_2", ManualJudgment())
+            ),
+            mapOf("manualJudgment_2" to listOf("wait_1"))
+    )
+
+    @Test
+    fun `concat renumbers appended stages and fans in from terminal stages`() {
+        val stages = Stages(listOf(PipelineStage("checkPreconditions_1", CheckPreconditions())))
+
+        val result = stages.concat(listOf(waitThenJudge, waitThenJudge))
+
+        assertThat(result).isEqualTo(Stages(
+                listOf(
+                        PipelineStage("checkPreconditions_1", CheckPreconditions()),
+                        PipelineStage("wait_2", Wait(1)),
+                        PipelineStage("manualJudgment_3", ManualJudgment()),
+                        PipelineStage("wait_4", Wait(1)),
+                        PipelineStage("manualJudgment_5", ManualJudgment())
+                ),
+                mapOf(
+                        "wait_2" to listOf("checkPreconditions_1"),
+                        "manualJudgment_3" to listOf("wait_2"),
+                        "wait_4" to listOf("checkPreconditions_1"),
+                        "manualJudgment_5" to listOf("wait_4")
+                )
+        ))
+    }
+
+    @Test
+    fun `union renumbers stages without connecting them`() {
+        val stages = Stages(listOf(PipelineStage("checkPreconditions_1", CheckPreconditions())))
+
+        val result = stages.union(listOf(waitThenJudge))
+
+        assertThat(result).isEqualTo(Stages(
+                listOf(
+                        PipelineStage("checkPreconditions_1", CheckPreconditions()),
+                        PipelineStage("wait_2", Wait(1)),
+                        PipelineStage("manualJudgment_3", ManualJudgment())
+                ),
+                mapOf("manualJudgment_3" to listOf("wait_2"))
+        ))
+    }
+
+    @Test
+    fun `renumbering refuses to reuse a refId of the appended graph`() {
+        val clashing = Stages(
+                listOf(PipelineStage("wait_1", Wait(1))),
+                mapOf("wait_1" to listOf("wait_2"))
+        )
+
+        val thrown = catchThrowable { Stages(listOf(PipelineStage("wait_1", Wait(1)))).union(listOf(clashing)) }
+
+        assertThat(thrown).isInstanceOf(IllegalStateException::class.java)
+                .hasMessageStartingWith("New RefId 'wait_2' is already used as a value in stage graph")
+    }
+
+}
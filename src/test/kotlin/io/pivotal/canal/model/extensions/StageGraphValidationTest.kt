@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Pivotal Software, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.pivotal.canal.model.extensions
+
+import io.pivotal.canal.extensions.nestedstages.stages
+import io.pivotal.canal.extensions.pipeline
+import io.pivotal.canal.model.*
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.junit.jupiter.api.Test
+
+class StageGraphValidationTest {
+
+    @Test
+    fun `stages are ordered after the stages they require`() {
+        val stages = Stages(
+                listOf(
+                        PipelineStage("manualJudgment3", ManualJudgment()),
+                        PipelineStage("wait2", Wait(2)),
+                        PipelineStage("wait1", Wait(1))
+                ),
+                mapOf(
+                        "manualJudgment3" to listOf("wait1", "wait2"),
+                        "wait2" to listOf("wait1")
+                )
+        )
+
+        assertThat(stages.topologicalOrder().map { it.refId }).containsExactly("wait1", "wait2", "manualJudgment3")
+        assertThat(stages.validate().isValid).isTrue()
+    }
+
+    @Test
+    fun `cycles, dangling and duplicate refIds are reported together`() {
+        val stages = Stages(
+                listOf(
+                        PipelineStage("wait1", Wait(1)),
+                        PipelineStage("wait2", Wait(2)),
+                        PipelineStage("wait3", Wait(3)),
+                        PipelineStage("wait4", Wait(4)),
+                        PipelineStage("wait1", Wait(5))
+                ),
+                mapOf(
+                        "wait2" to listOf("wait3", "missing"),
+                        "wait3" to listOf("wait2"),
+                        "wait4" to listOf("wait3")
+                )
+        )
+
+        val validation = stages.validate()
+
+        assertThat(validation.isValid).isFalse()
+        assertThat(validation.duplicateRefIds).containsExactly("wait1")
+        assertThat(validation.danglingRefIds).isEqualTo(mapOf("wait2" to listOf("missing")))
+        assertThat(validation.cyclicRefIds).containsExactly("wait2", "wait3")
+        assertThat(validation.topologicalOrder.map { it.refId }).containsExactly("wait1", "wait1")
+    }
+
+    @Test
+    fun `pipelines can be validated before generating JSON`() {
+        val pipelines = Pipelines().withPipelinesForApp("app1", pipeline("cyclic") {
+            stages = Stages(
+                    listOf(PipelineStage("wait1", Wait(1))),
+                    mapOf("wait1" to listOf("wait1"))
+            )
+        }, pipeline("valid") {
+            stages = stages { stage(Wait(1)) }
+        })
+
+        val thrown = catchThrowable { pipelines.toJson(validate = true) }
+
+        assertThat(thrown).isInstanceOf(InvalidStageGraphException::class.java)
+                .hasMessage("Invalid stage graph in pipeline 'app1/cyclic': Stages [wait1] form a cycle")
+    }
+
+}